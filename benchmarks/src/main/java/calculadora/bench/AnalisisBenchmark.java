@@ -0,0 +1,70 @@
+package calculadora.bench;
+
+import static calculadora.bench.Calculadora.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Costo de convertir el texto de una expresión en algo evaluable: la conversión original a postfija y el
+ * árbol de Nodo, y el analizador de una pasada con la optimización posterior.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AnalisisBenchmark {
+    @Param({"10", "100", "1000"})
+    int tamano;
+
+    @Param({"0", "4"})
+    int profundidad;
+
+    @Param({"aritmetica", "todos"})
+    String mezcla;
+
+    String infija;
+    String postfija;
+    Object programa;
+
+    @Setup
+    public void preparar() throws Throwable {
+        infija = Expresiones.generar(new Random(42), tamano, profundidad, Expresiones.operadores(mezcla));
+        postfija = (String) INFIJA_A_POSTFIJA.invokeExact(infija);
+        programa = (Object) COMPILAR.invokeExact((CharSequence) infija);
+    }
+
+    @Benchmark
+    public String infijaAPostfija() throws Throwable {
+        return (String) INFIJA_A_POSTFIJA.invokeExact(infija);
+    }
+
+    @Benchmark
+    public Object construirArbol() throws Throwable {
+        return (Object) CONSTRUIR_ARBOL.invokeExact(postfija);
+    }
+
+    @Benchmark
+    public Object analizador() throws Throwable {
+        return (Object) COMPILAR.invokeExact((CharSequence) infija);
+    }
+
+    @Benchmark
+    public Object optimizador() throws Throwable {
+        return (Object) OPTIMIZAR.invokeExact(programa);
+    }
+}
@@ -0,0 +1,78 @@
+package calculadora.bench;
+
+import static calculadora.bench.Calculadora.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Camino del servidor para una solicitud: buscar el programa en la caché (analizándolo si falta) y evaluarlo,
+ * con una proporción de aciertos controlada. Los aciertos salen de un grupo de expresiones que cabe en la caché;
+ * los fallos recorren un grupo mucho mayor que la capacidad, así que nunca siguen en la caché al repetirse.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CacheBenchmark {
+    static final int CAPACIDAD = 1024;
+    static final int FRECUENTES = 256;  // Con aciertos >= 0.5 siguen en la caché entre un uso y el siguiente.
+    static final int INFRECUENTES = 16 * 1024;
+    static final int SECUENCIA = 64 * 1024; // Potencia de 2.
+
+    @Param({"0.0", "0.5", "0.9", "1.0"})
+    double aciertos;
+
+    @Param({"10", "100"})
+    int tamano;
+
+    Object cache;
+    Object evaluador;
+    String[] secuencia;
+    int siguiente;
+
+    @Setup
+    public void preparar() throws Throwable {
+        Random azar = new Random(42);
+        String operadores = Expresiones.operadores("todos");
+        cache = (Object) NUEVA_CACHE.invokeExact(CAPACIDAD);
+        evaluador = (Object) NUEVO_EVALUADOR.invokeExact();
+        String[] frecuentes = new String[FRECUENTES];
+        for (int i = 0; i < FRECUENTES; i++) {
+            frecuentes[i] = Expresiones.generar(azar, tamano, 2, operadores);
+            Object programa = (Object) OBTENER.invokeExact(cache, frecuentes[i]);
+        }
+        String[] infrecuentes = new String[INFRECUENTES];
+        for (int i = 0; i < INFRECUENTES; i++) {
+            infrecuentes[i] = Expresiones.generar(azar, tamano, 2, operadores);
+        }
+        secuencia = new String[SECUENCIA];
+        int k = 0;
+        for (int i = 0; i < SECUENCIA; i++) {
+            secuencia[i] = azar.nextDouble() < aciertos
+                    ? frecuentes[azar.nextInt(FRECUENTES)]
+                    : infrecuentes[k++ % INFRECUENTES];
+        }
+    }
+
+    @Benchmark
+    public double obtenerYEvaluar() throws Throwable {
+        String expresion = secuencia[siguiente++ & (SECUENCIA - 1)];
+        Object programa = (Object) OBTENER.invokeExact(cache, expresion);
+        return (double) EVALUAR.invokeExact(evaluador, programa);
+    }
+}
@@ -0,0 +1,90 @@
+package calculadora.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+/**
+ * Acceso a las clases de la calculadora. Están en el paquete por defecto y no se pueden importar desde un paquete
+ * con nombre (JMH exige que los benchmarks tengan uno), así que cada operación se obtiene una vez por reflexión
+ * como un MethodHandle constante, que el JIT trata igual que una llamada directa.
+ * Los tipos de la calculadora (Nodo, Programa, Evaluador...) aparecen como Object en las firmas; los del JDK
+ * se conservan.
+ */
+final class Calculadora {
+    static final MethodHandle INFIJA_A_POSTFIJA = metodo("ArbolExpresion", "infijaAPostfija", String.class);
+    static final MethodHandle CONSTRUIR_ARBOL = metodo("ArbolExpresion", "construirArbol", String.class);
+    static final MethodHandle EVALUAR_ARBOL = metodo("ArbolExpresion", "evaluarArbol", clase("Nodo"));
+    static final MethodHandle ARBOL_DESDE_INFIJA = metodo("Analizador", "construirArbol", CharSequence.class);
+    static final MethodHandle COMPILAR = metodo("Analizador", "compilar", CharSequence.class);
+    static final MethodHandle OPTIMIZAR = metodo("Optimizador", "optimizar", clase("Programa"));
+    static final MethodHandle NUEVO_EVALUADOR = constructor("Evaluador");
+    static final MethodHandle EVALUAR = metodo("Evaluador", "evaluar", clase("Programa"));
+    static final MethodHandle GENERAR_CLASE = metodo("GeneradorClases", "generar", clase("Programa"));
+    static final MethodHandle EVALUAR_POR_NIVELES = metodo("GeneradorClases", "evaluar", clase("Programa"), clase("Evaluador"));
+    static final MethodHandle TABLA_DESDE_PROGRAMA = metodo("TablaNodos", "desdePrograma", clase("Programa"));
+    static final MethodHandle CANTIDAD_NODOS = metodo("TablaNodos", "getCantidad");
+    static final MethodHandle EVALUAR_TABLA = metodo("TablaNodos", "evaluar", double[].class, double[].class);
+    static final MethodHandle NUEVA_CACHE = constructor("CacheExpresiones", int.class);
+    static final MethodHandle OBTENER = metodo("CacheExpresiones", "obtener", String.class);
+    static final MethodHandle SERVIDOR = metodo("ArbolExpresion", "main", String[].class);
+
+    private Calculadora() {
+    }
+
+    static Class<?> clase(String nombre) {
+        try {
+            return Class.forName(nombre);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle metodo(String clase, String nombre, Class<?>... parametros) {
+        try {
+            return adaptar(clase(clase).getDeclaredMethod(nombre, parametros));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle constructor(String clase, Class<?>... parametros) {
+        try {
+            Constructor<?> constructor = clase(clase).getDeclaredConstructor(parametros);
+            constructor.setAccessible(true);
+            MethodHandle handle = MethodHandles.lookup().unreflectConstructor(constructor);
+            return handle.asType(borrar(handle.type()));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Convierte un método, estático o de instancia, en un MethodHandle que se puede invocar con invokeExact sin
+     * nombrar las clases del paquete por defecto. Los métodos de paquete también se aceptan porque el benchmark
+     * y la calculadora están en el mismo módulo sin nombre.
+     */
+    private static MethodHandle adaptar(Method metodo) throws IllegalAccessException {
+        metodo.setAccessible(true);
+        MethodHandle handle = MethodHandles.lookup().unreflect(metodo);
+        return handle.asType(borrar(handle.type()));
+    }
+
+    /**
+     * Reemplaza por Object las clases del paquete por defecto; los primitivos y las clases del JDK no cambian.
+     */
+    private static MethodType borrar(MethodType tipo) {
+        for (int i = 0; i < tipo.parameterCount(); i++) {
+            if (dePaquetePorDefecto(tipo.parameterType(i))) {
+                tipo = tipo.changeParameterType(i, Object.class);
+            }
+        }
+        return dePaquetePorDefecto(tipo.returnType()) ? tipo.changeReturnType(Object.class) : tipo;
+    }
+
+    private static boolean dePaquetePorDefecto(Class<?> clase) {
+        return !clase.isPrimitive() && !clase.isArray() && clase.getPackageName().isEmpty();
+    }
+}
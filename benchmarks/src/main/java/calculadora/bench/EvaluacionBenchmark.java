@@ -0,0 +1,90 @@
+package calculadora.bench;
+
+import static calculadora.bench.Calculadora.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Costo de evaluar una expresión ya analizada con cada motor: el árbol de Nodo, el intérprete de programas
+ * (con y sin optimizar), la clase generada y la tabla de nodos. Como las expresiones solo tienen constantes, el
+ * optimizador las reduce a un único valor: interpreteOptimizado mide ese caso, y el resto usa el programa original.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EvaluacionBenchmark {
+    @Param({"10", "100", "1000"})
+    int tamano;
+
+    @Param({"0", "4"})
+    int profundidad;
+
+    @Param({"aritmetica", "todos"})
+    String mezcla;
+
+    Object arbol;
+    Object programa;
+    Object optimizado;
+    Object generado;
+    Object evaluador;
+    Object tabla;
+    double[] resultados;
+    final double[] sinVariables = {};
+
+    @Setup
+    public void preparar() throws Throwable {
+        String infija = Expresiones.generar(new Random(42), tamano, profundidad, Expresiones.operadores(mezcla));
+        arbol = (Object) ARBOL_DESDE_INFIJA.invokeExact((CharSequence) infija);
+        programa = (Object) COMPILAR.invokeExact((CharSequence) infija);
+        optimizado = (Object) OPTIMIZAR.invokeExact(programa);
+        // Se genera la clase de una copia sin optimizar, para compararla con el intérprete sobre el mismo programa.
+        generado = (Object) COMPILAR.invokeExact((CharSequence) infija);
+        if (!(boolean) GENERAR_CLASE.invokeExact(generado)) {
+            throw new IllegalStateException("No se pudo generar la clase de la expresión");
+        }
+        evaluador = (Object) NUEVO_EVALUADOR.invokeExact();
+        tabla = (Object) TABLA_DESDE_PROGRAMA.invokeExact(programa);
+        resultados = new double[(int) CANTIDAD_NODOS.invokeExact(tabla)];
+    }
+
+    @Benchmark
+    public double arbolDeNodos() throws Throwable {
+        return (double) EVALUAR_ARBOL.invokeExact(arbol);
+    }
+
+    @Benchmark
+    public double interprete() throws Throwable {
+        return (double) EVALUAR.invokeExact(evaluador, programa);
+    }
+
+    @Benchmark
+    public double interpreteOptimizado() throws Throwable {
+        return (double) EVALUAR.invokeExact(evaluador, optimizado);
+    }
+
+    @Benchmark
+    public double claseGenerada() throws Throwable {
+        return (double) EVALUAR_POR_NIVELES.invokeExact(generado, evaluador);
+    }
+
+    @Benchmark
+    public double tablaDeNodos() throws Throwable {
+        return (double) EVALUAR_TABLA.invokeExact(tabla, sinVariables, resultados);
+    }
+}
@@ -0,0 +1,67 @@
+package calculadora.bench;
+
+import java.util.Random;
+
+/**
+ * Genera expresiones infijas reproducibles para los benchmarks, sin espacios para que también las acepte
+ * ArbolExpresion.infijaAPostfija.
+ */
+final class Expresiones {
+    private Expresiones() {
+    }
+
+    /**
+     * Operadores de cada mezcla que aceptan los parámetros "mezcla" de los benchmarks.
+     */
+    static String operadores(String mezcla) {
+        switch (mezcla) {
+            case "aritmetica":
+                return "+-*/";
+            case "potencias":
+                return "+-*/%!";
+            case "logica":
+                return "&|^~+";
+            case "todos":
+                return "+-*/%!&|^~";
+            default:
+                throw new IllegalArgumentException("Mezcla desconocida: " + mezcla);
+        }
+    }
+
+    /**
+     * Genera una expresión.
+     *
+     * @param azar Fuente de números y operadores; con la misma semilla se obtiene la misma expresión.
+     * @param operandos Cantidad de números de la expresión.
+     * @param profundidad Niveles de paréntesis anidados como máximo (0 para una cadena plana de operaciones).
+     * @param operadores Operadores entre los que se elige.
+     * @return La expresión en notación infija.
+     */
+    static String generar(Random azar, int operandos, int profundidad, String operadores) {
+        StringBuilder texto = new StringBuilder(operandos * 8);
+        agregar(texto, azar, Math.max(1, operandos), profundidad, operadores);
+        return texto.toString();
+    }
+
+    private static void agregar(StringBuilder texto, Random azar, int operandos, int profundidad, String operadores) {
+        if (profundidad == 0 || operandos < 2) {
+            for (int i = 0; i < operandos; i++) {
+                if (i > 0) {
+                    texto.append(operadores.charAt(azar.nextInt(operadores.length())));
+                }
+                texto.append(1 + azar.nextInt(99));
+                if (azar.nextBoolean()) {
+                    texto.append('.').append(azar.nextInt(100));
+                }
+            }
+            return;
+        }
+        // La mitad de los operandos va entre paréntesis con un nivel más; el resto queda en este nivel.
+        int adentro = operandos / 2;
+        texto.append('(');
+        agregar(texto, azar, adentro, profundidad - 1, operadores);
+        texto.append(')');
+        texto.append(operadores.charAt(azar.nextInt(operadores.length())));
+        agregar(texto, azar, operandos - adentro, profundidad - 1, operadores);
+    }
+}
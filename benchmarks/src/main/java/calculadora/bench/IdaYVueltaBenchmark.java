@@ -0,0 +1,139 @@
+package calculadora.bench;
+
+import static calculadora.bench.Calculadora.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latencia de una solicitud completa por la red local: un cliente de prueba envía una trama SOLICITUD del protocolo
+ * binario (ver Protocolo) por una conexión persistente y espera el RESULTADO. El servidor corre en la misma JVM,
+ * en el puerto 9999, en modo bloqueante o NIO. El modo SampleTime reporta los percentiles p50, p99 y p99.9; con
+ * varios hilos (-t) cada uno usa su propia conexión.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IdaYVueltaBenchmark {
+    static final int PUERTO = 9999;
+    static final byte VERSION = 1;
+    static final byte SOLICITUD = 1;
+    static final byte RESULTADO = 2;
+
+    /**
+     * El servidor, que se inicia una vez por JVM. Su salida por consola se descarta para no medir la escritura
+     * en la terminal.
+     */
+    @State(Scope.Benchmark)
+    public static class Servidor {
+        @Param({"bloqueante", "nio"})
+        String modo;
+
+        @Param({"10", "100"})
+        int tamano;
+
+        byte[][] expresiones;
+
+        @Setup
+        public void iniciar() throws Throwable {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            if ("nio".equals(modo)) {
+                System.setProperty("calculadora.servidor.modo", "nio");
+            }
+            SERVIDOR.invokeExact(new String[0]);
+            Random azar = new Random(42);
+            expresiones = new byte[64][];
+            for (int i = 0; i < expresiones.length; i++) {
+                expresiones[i] = Expresiones.generar(azar, tamano, 2, Expresiones.operadores("todos"))
+                        .getBytes(StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    /**
+     * Cliente de prueba con su propia conexión persistente.
+     */
+    @State(Scope.Thread)
+    public static class Cliente {
+        Socket socket;
+        DataOutputStream salida;
+        DataInputStream entrada;
+        long id;
+
+        @Setup
+        public void conectar(Servidor servidor) throws Exception {
+            long limite = System.currentTimeMillis() + 10_000;
+            while (true) {
+                try {
+                    socket = new Socket("127.0.0.1", PUERTO);
+                    break;
+                } catch (ConnectException e) {
+                    if (System.currentTimeMillis() > limite) {
+                        throw e;
+                    }
+                    Thread.sleep(50); // El servidor todavía no abrió el puerto.
+                }
+            }
+            socket.setTcpNoDelay(true);
+            salida = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            entrada = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        }
+
+        @TearDown(Level.Trial)
+        public void cerrar() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Benchmark
+    public double solicitud(Servidor servidor, Cliente cliente) throws IOException {
+        long id = ++cliente.id;
+        byte[] expresion = servidor.expresiones[(int) (id & 63)];
+        DataOutputStream salida = cliente.salida;
+        salida.writeInt(1 + 1 + 8 + expresion.length);
+        salida.writeByte(VERSION);
+        salida.writeByte(SOLICITUD);
+        salida.writeLong(id);
+        salida.write(expresion);
+        salida.flush();
+
+        DataInputStream entrada = cliente.entrada;
+        int largo = entrada.readInt();
+        entrada.readByte();
+        byte tipo = entrada.readByte();
+        long respondida = entrada.readLong();
+        if (tipo != RESULTADO || respondida != id) {
+            throw new IOException("Respuesta inesperada: tipo " + tipo + ", id " + respondida + " en lugar de " + id);
+        }
+        if (largo != 1 + 1 + 8 + 8) {
+            throw new IOException("Largo de resultado inesperado: " + largo);
+        }
+        return entrada.readDouble();
+    }
+}
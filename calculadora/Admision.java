@@ -0,0 +1,168 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Control de admisión del servidor. Bajo sobrecarga el servidor rechaza trabajo de forma explícita en lugar de
+ * acumularlo sin límite, para que la latencia de lo que sí acepta siga siendo predecible:
+ * <ul>
+ * <li>la cola del grupo de cálculo tiene capacidad fija (-Dcalculadora.cola.capacidad, 4096); una solicitud que
+ * no cabe se responde como ocupada;</li>
+ * <li>una solicitud que esperó en la cola más de -Dcalculadora.cola.espera milisegundos (2000; 0 sin límite) se
+ * responde como ocupada sin evaluarla, porque su cliente probablemente ya dejó de esperarla;</li>
+ * <li>cada cliente puede enviar como máximo -Dcalculadora.limite.tasa solicitudes por segundo (0, sin límite),
+ * con ráfagas de hasta -Dcalculadora.limite.rafaga (tasa, como mínimo 1). En el protocolo original el cliente se
+ * identifica por su puerto ({@link RegistroClientes#admitir(int)}); en el persistente, por su conexión;</li>
+ * <li>el servidor bloqueante atiende como máximo -Dcalculadora.conexiones.maximo conexiones a la vez (4096); de
+ * las demás lee solo la primera solicitud, en un único hilo y con el mismo tiempo máximo que las respuestas del
+ * protocolo original, y la responde como ocupada. Si también hay -Dcalculadora.conexiones.rechazos conexiones
+ * (64) esperando esa respuesta, la conexión se cierra enseguida en lugar de esperar en el backlog;</li>
+ * <li>las expresiones de más de -Dcalculadora.expresion.maximo caracteres (100000) que llegan al servidor se
+ * rechazan sin analizarlas, lo que acota el tiempo de análisis y de evaluación de cada una. El límite se aplica
+ * en los puntos de entrada del servidor ({@link ArbolExpresion#calcularSolicitud}), no en la evaluación de
+ * archivos ni en el reconocimiento de imágenes.</li>
+ * </ul>
+ * El límite de tasa usa el algoritmo GCRA: por cliente solo se guarda el "turno teórico" de su siguiente
+ * solicitud, un long, que avanza un intervalo con cada solicitud admitida.
+ */
+public final class Admision {
+    static final String COLA_LLENA = "El servidor está ocupado, intente más tarde";
+    static final String DEMASIADAS = "Demasiadas solicitudes, intente más tarde";
+
+    static final int capacidadCola = Integer.getInteger("calculadora.cola.capacidad", 4096);
+    static final long esperaMaxima = TimeUnit.MILLISECONDS.toNanos(Long.getLong("calculadora.cola.espera", 2000));
+    static final int maximoCaracteres = Integer.getInteger("calculadora.expresion.maximo", 100_000);
+    static final Semaphore conexiones = new Semaphore(Integer.getInteger("calculadora.conexiones.maximo", 4096));
+    static final int rechazosPendientes = Math.max(1, Integer.getInteger("calculadora.conexiones.rechazos", 64));
+
+    private static final double tasa = Double.parseDouble(System.getProperty("calculadora.limite.tasa", "0"));
+    private static final long intervalo = tasa > 0 ? (long) (1e9 / tasa) : 0; // Nanosegundos entre solicitudes.
+    private static final long tolerancia = intervalo
+            * (Math.max(1, Integer.getInteger("calculadora.limite.rafaga", (int) Math.ceil(tasa))) - 1);
+
+    static final long SIN_TURNO = Long.MIN_VALUE; // Turno de un cliente que todavía no envió nada.
+
+    private Admision() {
+    }
+
+    /**
+     * Crea el grupo de hilos de cálculo, con un hilo por procesador y una cola acotada. Si la cola está llena,
+     * execute lanza RejectedExecutionException.
+     *
+     * @return El ejecutor de cálculo.
+     */
+    static ExecutorService crearCalculo() {
+        int hilos = Runtime.getRuntime().availableProcessors();
+        return new ThreadPoolExecutor(hilos, hilos, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(capacidadCola));
+    }
+
+    /**
+     * Crea el hilo que responde como ocupadas las conexiones que exceden el máximo, con una cola acotada. Si la
+     * cola está llena, execute lanza RejectedExecutionException.
+     *
+     * @return El ejecutor de rechazos.
+     */
+    static ExecutorService crearRechazos() {
+        return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(rechazosPendientes), tarea -> {
+            Thread hilo = new Thread(tarea, "rechazo-conexiones");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+    }
+
+    /**
+     * Verifica si una solicitud esperó demasiado en la cola de cálculo.
+     *
+     * @param encolada El instante (System.nanoTime()) en que se encoló.
+     * @return true si debe responderse como ocupada en lugar de evaluarse.
+     */
+    static boolean vencida(long encolada) {
+        return esperaMaxima > 0 && System.nanoTime() - encolada > esperaMaxima;
+    }
+
+    /**
+     * Verifica que una expresión no supere el tamaño máximo.
+     *
+     * @param expresion La expresión en notación infija.
+     * @throws IllegalArgumentException Si es demasiado larga.
+     */
+    static void verificarTamano(String expresion) {
+        if (expresion != null && expresion.length() > maximoCaracteres) {
+            throw new IllegalArgumentException(mensajeTamano());
+        }
+    }
+
+    /**
+     * Marca como erróneas las expresiones de un lote que superan el tamaño máximo, para que no se evalúen.
+     *
+     * @param expresiones Las expresiones del lote.
+     * @param valores Los resultados del lote; los de las expresiones rechazadas quedan en NaN.
+     * @param errores Los mensajes de error del lote; los de las expresiones rechazadas quedan asignados.
+     * @return La cantidad de expresiones rechazadas.
+     */
+    static int verificarTamano(String[] expresiones, double[] valores, String[] errores) {
+        int rechazadas = 0;
+        for (int i = 0; i < expresiones.length; i++) {
+            if (expresiones[i] != null && expresiones[i].length() > maximoCaracteres) {
+                valores[i] = Double.NaN;
+                errores[i] = mensajeTamano();
+                rechazadas++;
+            }
+        }
+        return rechazadas;
+    }
+
+    private static String mensajeTamano() {
+        return "La expresión supera el máximo de " + maximoCaracteres + " caracteres";
+    }
+
+    /**
+     * @return true si los clientes tienen límite de tasa.
+     */
+    static boolean limitada() {
+        return intervalo > 0;
+    }
+
+    /**
+     * Calcula el turno de un cliente tras una solicitud nueva.
+     *
+     * @param turno El turno teórico actual del cliente, o {@link #SIN_TURNO}.
+     * @param ahora El instante de la solicitud (System.nanoTime()).
+     * @return El turno siguiente si la solicitud se admite, o {@link #SIN_TURNO} si excede la tasa; en ese caso
+     * el turno del cliente no cambia.
+     */
+    static long admitir(long turno, long ahora) {
+        if (intervalo == 0) {
+            return ahora;
+        }
+        long teorico = turno == SIN_TURNO ? ahora : Math.max(turno, ahora);
+        if (teorico - ahora > tolerancia) {
+            return SIN_TURNO;
+        }
+        return teorico + intervalo;
+    }
+
+    /**
+     * Límite de tasa de una conexión persistente. Lo usa solo el hilo que lee la conexión.
+     */
+    static final class Limite {
+        private long turno = SIN_TURNO;
+
+        /**
+         * @return true si la solicitud que acaba de llegar se admite.
+         */
+        boolean admitir() {
+            if (!limitada()) {
+                return true;
+            }
+            long siguiente = Admision.admitir(turno, System.nanoTime());
+            if (siguiente == SIN_TURNO) {
+                return false;
+            }
+            turno = siguiente;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+import java.util.Arrays;
+
+/**
+ * Analizador de expresiones en notación infija que recorre la entrada una sola vez.
+ * Aplica el algoritmo shunting-yard con pilas de tipos primitivos y emite directamente
+ * el {@link Programa} en orden postfijo, sin construir cadenas intermedias.
+ * Respeta las mismas prioridades que {@link ArbolExpresion#infijaAPostfija(String)}. Además de números acepta
+ * variables: nombres que empiezan con una letra o guion bajo y siguen con letras, dígitos o guiones bajos.
+ * Una instancia reutiliza sus pilas entre análisis y no debe compartirse entre hilos.
+ */
+public final class Analizador {
+    // Potencias de 10 que se representan de forma exacta como double.
+    private static final double[] POTENCIAS = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private char[] operadores = new char[16];   // Pila de operadores y paréntesis pendientes.
+    private int[] posiciones = new int[16];     // Posición en la entrada de cada elemento de la pila de operadores.
+    private byte[] codigos = new byte[32];      // Programa en construcción.
+    private int[] operandos = new int[32];
+    private double[] constantes = new double[16];
+    private String[] variables = new String[4];   // Variables encontradas, en orden de aparición.
+
+    /**
+     * Analiza una expresión infija con un analizador nuevo.
+     *
+     * @param expresion La expresión en notación infija.
+     * @return El programa compilado de la expresión.
+     * @throws ErrorSintaxis Si la expresión está mal formada.
+     */
+    public static Programa compilar(CharSequence expresion) {
+        return new Analizador().analizar(expresion);
+    }
+
+    /**
+     * Analiza una expresión infija y construye su árbol de expresión.
+     *
+     * @param expresion La expresión en notación infija.
+     * @return La raíz del árbol de expresión.
+     * @throws ErrorSintaxis Si la expresión está mal formada.
+     */
+    public static Nodo construirArbol(CharSequence expresion) {
+        return compilar(expresion).aArbol();
+    }
+
+    /**
+     * Analiza una expresión infija y la compila a un programa.
+     *
+     * @param expresion La expresión en notación infija.
+     * @return El programa compilado de la expresión.
+     * @throws ErrorSintaxis Si la expresión está mal formada.
+     */
+    public Programa analizar(CharSequence expresion) {
+        int largo = expresion.length();
+        int tope = -1;        // Tope de la pila de operadores.
+        int n = 0;            // Cantidad de códigos emitidos.
+        int k = 0;            // Cantidad de constantes emitidas.
+        int v = 0;            // Cantidad de variables distintas.
+        int altura = 0;       // Altura de la pila de evaluación tras los códigos emitidos.
+        int profundidad = 1;  // Altura máxima alcanzada.
+        boolean esperaOperando = true;
+
+        int i = 0;
+        while (i < largo) {
+            char c = expresion.charAt(i);
+
+            if (Character.isDigit(c) || c == '.') {
+                if (!esperaOperando) {
+                    throw new ErrorSintaxis("Falta un operador", i);
+                }
+                int inicio = i;
+                long mantisa = 0;
+                int digitos = 0;
+                int decimales = -1; // -1 mientras no se haya encontrado el punto decimal.
+                while (i < largo) {
+                    char d = expresion.charAt(i);
+                    if (d >= '0' && d <= '9') {
+                        mantisa = mantisa * 10 + (d - '0');
+                        digitos++;
+                        if (decimales >= 0) {
+                            decimales++;
+                        }
+                    } else if (d == '.' && decimales < 0 && i > inicio) {
+                        decimales = 0;
+                    } else if (d == '.' || Character.isDigit(d)) {
+                        throw new ErrorSintaxis("Número mal formado", i);
+                    } else {
+                        break;
+                    }
+                    i++;
+                }
+                if (decimales == 0) {
+                    throw new ErrorSintaxis("Número mal formado", i - 1);
+                }
+                double valor;
+                if (digitos <= 15) {
+                    // La mantisa y la potencia son exactas, así que una sola división redondea igual que parseDouble.
+                    valor = decimales > 0 ? mantisa / POTENCIAS[decimales] : mantisa;
+                } else {
+                    valor = Double.parseDouble(expresion.subSequence(inicio, i).toString());
+                }
+
+                if (k == constantes.length) {
+                    constantes = Arrays.copyOf(constantes, k * 2);
+                }
+                constantes[k] = valor;
+                n = emitir(n, Programa.CARGAR, k++);
+                altura++;
+                profundidad = Math.max(profundidad, altura);
+                esperaOperando = false;
+                continue;
+            }
+
+            if (Character.isLetter(c) || c == '_') {
+                if (!esperaOperando) {
+                    throw new ErrorSintaxis("Falta un operador", i);
+                }
+                int inicio = i;
+                while (i < largo && (Character.isLetterOrDigit(expresion.charAt(i)) || expresion.charAt(i) == '_')) {
+                    i++;
+                }
+                int indice = buscarVariable(expresion, inicio, i, v);
+                if (indice == v) {
+                    String nombre = expresion.subSequence(inicio, i).toString();
+                    if (nombre.equals("NaN") || nombre.equals("Infinity")) {
+                        // Estos nombres se confundirían con números al reconstruir el árbol.
+                        throw new ErrorSintaxis("Nombre de variable reservado '" + nombre + "'", inicio);
+                    }
+                    if (v == variables.length) {
+                        variables = Arrays.copyOf(variables, v * 2);
+                    }
+                    variables[v++] = nombre;
+                }
+                n = emitir(n, Programa.VARIABLE, indice);
+                altura++;
+                profundidad = Math.max(profundidad, altura);
+                esperaOperando = false;
+                continue;
+            }
+
+            if (c == '(') {
+                if (!esperaOperando) {
+                    throw new ErrorSintaxis("Falta un operador", i);
+                }
+                tope = apilar(tope, c, i);
+            } else if (c == ')') {
+                if (esperaOperando) {
+                    throw new ErrorSintaxis("Falta un operando", i);
+                }
+                // Se desapilan operadores hasta encontrar el paréntesis de apertura correspondiente.
+                while (tope >= 0 && operadores[tope] != '(') {
+                    n = emitir(n, Programa.codigo(operadores[tope--]), 0);
+                    altura--;
+                }
+                if (tope < 0) {
+                    throw new ErrorSintaxis("Paréntesis de cierre sin apertura", i);
+                }
+                tope--;
+            } else if (ArbolExpresion.esOperador(c)) {
+                if (esperaOperando) {
+                    throw new ErrorSintaxis("Falta un operando", i);
+                }
+                int prioridad = ArbolExpresion.prioridad(c);
+                while (tope >= 0 && prioridad <= ArbolExpresion.prioridad(operadores[tope])) {
+                    n = emitir(n, Programa.codigo(operadores[tope--]), 0);
+                    altura--;
+                }
+                tope = apilar(tope, c, i);
+                esperaOperando = true;
+            } else if (!Character.isWhitespace(c)) {
+                throw new ErrorSintaxis("Carácter no válido '" + c + "'", i);
+            }
+            i++;
+        }
+
+        if (esperaOperando) {
+            throw new ErrorSintaxis("Falta un operando", largo);
+        }
+        while (tope >= 0) {
+            if (operadores[tope] == '(') {
+                throw new ErrorSintaxis("Paréntesis sin cerrar", posiciones[tope]);
+            }
+            n = emitir(n, Programa.codigo(operadores[tope--]), 0);
+            altura--;
+        }
+        return new Programa(Arrays.copyOf(codigos, n), Arrays.copyOf(operandos, n), Arrays.copyOf(constantes, k),
+                Arrays.copyOf(variables, v), profundidad);
+    }
+
+    /**
+     * Busca una variable ya encontrada comparando su nombre con la entrada, sin crear cadenas.
+     *
+     * @param expresion La expresión que se analiza.
+     * @param inicio Posición donde empieza el nombre.
+     * @param fin Posición siguiente al final del nombre.
+     * @param cantidad Cantidad de variables encontradas hasta ahora.
+     * @return El índice de la variable, o cantidad si es nueva.
+     */
+    private int buscarVariable(CharSequence expresion, int inicio, int fin, int cantidad) {
+        for (int j = 0; j < cantidad; j++) {
+            String nombre = variables[j];
+            if (nombre.length() != fin - inicio) {
+                continue;
+            }
+            int i = 0;
+            while (i < nombre.length() && nombre.charAt(i) == expresion.charAt(inicio + i)) {
+                i++;
+            }
+            if (i == nombre.length()) {
+                return j;
+            }
+        }
+        return cantidad;
+    }
+
+    /**
+     * Agrega un código al programa en construcción.
+     *
+     * @param n Cantidad de códigos emitidos.
+     * @param codigo El código a agregar.
+     * @param operando El operando del código.
+     * @return La nueva cantidad de códigos emitidos.
+     */
+    private int emitir(int n, byte codigo, int operando) {
+        if (n == codigos.length) {
+            codigos = Arrays.copyOf(codigos, n * 2);
+            operandos = Arrays.copyOf(operandos, n * 2);
+        }
+        codigos[n] = codigo;
+        operandos[n] = operando;
+        return n + 1;
+    }
+
+    /**
+     * Apila un operador o paréntesis junto con su posición en la entrada.
+     *
+     * @param tope El tope actual de la pila.
+     * @param c El operador a apilar.
+     * @param posicion La posición del operador en la entrada.
+     * @return El nuevo tope de la pila.
+     */
+    private int apilar(int tope, char c, int posicion) {
+        if (tope + 1 == operadores.length) {
+            operadores = Arrays.copyOf(operadores, operadores.length * 2);
+            posiciones = Arrays.copyOf(posiciones, posiciones.length * 2);
+        }
+        operadores[++tope] = c;
+        posiciones[tope] = posicion;
+        return tope;
+    }
+}
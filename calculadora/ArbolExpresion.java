@@ -1,48 +1,40 @@
 import java.io.*;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Stack;
 import java.util.Scanner;
 
-/**
- * Clase que permite la construcción y evaluación de expresiones matemáticas en notación postfija.
- */
-class Nodo {
-    String valor;  //Tipo a String para manejar números con varios dígitos
-    Nodo izquierdo;
-    Nodo derecho;
-
-    public Nodo(String valor) {
-        this.valor = valor;
-        izquierdo = null;
-        derecho = null;
-    }
-
-    // Constructor adicional para operadores
-    public Nodo(char operador) {
-        this.valor = Character.toString(operador);
-        izquierdo = null;
-        derecho = null;
-    }
-
-    // Método para verificar si un nodo es un número
-    public boolean esNumero() {
-        try {
-            Double.parseDouble(valor);
-            return true;
-        } catch (NumberFormatException e) {
-            return false;
-        }
-    }
-}
-
 /**
  * Clase principal para manipular expresiones matemáticas.
  */
 public class ArbolExpresion implements Runnable {
-    static int clientes = 0; //Cantidad de clientes conectados.
-    static int[] lista = {}; //Lista de clientes conectados.
+    //Clientes registrados con su última comunicación. Se desalojan tras -Dcalculadora.clientes.inactividad milisegundos sin comunicarse.
+    static RegistroClientes clientes = new RegistroClientes(Long.getLong("calculadora.clientes.inactividad", 30 * 60 * 1000L));
+    static CacheExpresiones cache = new CacheExpresiones(Integer.getInteger("calculadora.cache.capacidad", 1024)); //Programas compilados de las expresiones recientes.
+    static final ThreadLocal<Evaluador> evaluadores = ThreadLocal.withInitial(Evaluador::new); //Un evaluador por hilo.
+    static final ExecutorService calculo = Admision.crearCalculo(); //Evalúa las solicitudes de las conexiones persistentes, con cola acotada (ver Admision).
+    static final ExecutorService rechazos = Admision.crearRechazos(); //Responde como ocupadas las conexiones que exceden el máximo.
+    // Acepta los clientes que envían objetos serializados (paquete datos o Solicitud). Con -Dcalculadora.compatibilidad=false
+    // solo se acepta el protocolo binario y el servidor nunca deserializa objetos recibidos por la red.
+    static boolean compatibilidad = !"false".equals(System.getProperty("calculadora.compatibilidad"));
+    static final ObjectInputFilter filtro = ObjectInputFilter.Config.createFilter("datos;Solicitud;java.lang.String;!*"); //Clases que se aceptan al deserializar.
+    static int umbralLote = Integer.getInteger("calculadora.lote.umbral", 256); //Tamaño de lote a partir del cual se evalúa en paralelo.
+    static int tiempoConexion = Integer.getInteger("calculadora.respuesta.timeout", 2000); //Milisegundos máximos para conectar con el cliente.
+    // Las expresiones que se evalúan más de -Dcalculadora.generacion.umbral veces se ejecutan con una clase generada (ver GeneradorClases).
 
     /**
      * Construye un árbol de expresión a partir de una expresión postfija.
@@ -89,6 +81,19 @@ public class ArbolExpresion implements Runnable {
      * @return El resultado de la evaluación de la expresión.
      */
     public static double evaluarArbol(Nodo raiz) {
+        return evaluarArbol(raiz, Collections.emptyMap());
+    }
+
+    /**
+     * Evalúa un árbol de expresión que puede tener variables. Es la evaluación de referencia: los demás
+     * evaluadores deben dar exactamente sus mismos resultados.
+     *
+     * @param raiz La raíz del árbol de expresión.
+     * @param variables El valor de cada variable según su nombre.
+     * @return El resultado de la evaluación de la expresión.
+     * @throws IllegalArgumentException Si alguna variable del árbol no tiene valor.
+     */
+    public static double evaluarArbol(Nodo raiz, Map<String, Double> variables) {
         if (raiz == null) {
             return 0;
         }
@@ -97,9 +102,17 @@ public class ArbolExpresion implements Runnable {
             // Si el nodo actual es un número, devuelve su valor como double.
             return Double.parseDouble(raiz.valor);
         }
+
+        if (raiz.esVariable()) {
+            Double valor = variables.get(raiz.valor);
+            if (valor == null) {
+                throw new IllegalArgumentException("La variable '" + raiz.valor + "' no tiene valor");
+            }
+            return valor;
+        }
     
-        double izquierdo = evaluarArbol(raiz.izquierdo);
-        double derecho = evaluarArbol(raiz.derecho);
+        double izquierdo = evaluarArbol(raiz.izquierdo, variables);
+        double derecho = evaluarArbol(raiz.derecho, variables);
     
         // Realiza la operación correspondiente según el operador del nodo
         switch (raiz.valor.charAt(0)) {
@@ -128,6 +141,20 @@ public class ArbolExpresion implements Runnable {
         return 0;
     }
 
+    /**
+     * Evalúa un árbol de expresión sin recursión. El árbol se convierte en una {@link TablaNodos}, así un árbol
+     * muy profundo (por ejemplo una cadena de cientos de miles de sumas) no desborda la pila del hilo. Da los
+     * mismos resultados que {@link #evaluarArbol(Nodo, Map)}.
+     *
+     * @param raiz La raíz del árbol de expresión.
+     * @param variables El valor de cada variable según su nombre.
+     * @return El resultado de la evaluación de la expresión.
+     * @throws IllegalArgumentException Si alguna variable del árbol no tiene valor.
+     */
+    public static double evaluarArbolSinRecursion(Nodo raiz, Map<String, Double> variables) {
+        return TablaNodos.desdeArbol(raiz).evaluar(variables);
+    }
+
 /**
 * Convierte una expresión matemática en notación infija a notación postfija.
 *
@@ -206,94 +233,653 @@ public static String infijaAPostfija(String expresionInfija) {
     }
 
     /**
-     * Agrega un cliente a la lista.
-     * @param n El largo de la lista.
-     * @param arr Lista de clientes.
-     * @param ele Puerto del nuevo cliente.
-     * @return Una lista con el nuevo cliente.
+     * Busca el cliente en el registro de clientes y lo registra si no existe. Un paquete de registro (sin
+     * expresión) termina ahí; si trae una expresión, se evalúa y el resultado se envía al puerto del cliente,
+     * aunque el cliente no estuviera registrado: así un cliente desalojado por inactividad sigue recibiendo sus
+     * respuestas. En ambos casos se actualiza su última comunicación.
+     * La expresión se evalúa en el grupo de cálculo ({@link #evaluarEnCola}). Si el cliente excede su límite de
+     * tasa, o la solicitud no cabe en la cola de cálculo, en lugar del resultado recibe un mensaje de ocupado.
+     * @param direccion La dirección desde la que se conectó el cliente, donde escucha su puerto.
+     * @param ele El cliente que debe buscar.
+     * @param expresion La expresión matemática que recibió por parte del cliente.
+     */
+    public static void buscar_cliente(InetAddress direccion, int ele, String expresion) throws IOException {
+        if (clientes.registrar(ele) && Bitacora.solicitudes) {
+            Bitacora.escribir("Cantidad de clientes:" + clientes.tamano() + "\nPuerto del cliente:" + ele);
+        }
+        if (expresion == null) {
+            return; // Paquete de registro.
+        }
+        if (clientes.admitir(ele)) {
+            expresion = evaluarEnCola(expresion);
+        } else {
+            Metricas.rechazadas.increment();
+            expresion = "Ocupado: " + Admision.DEMASIADAS;
+        }
+        responderDatos(direccion, ele, expresion);
+        if (Bitacora.solicitudes) {
+            Bitacora.escribir("Cantidad de clientes:" + clientes.tamano() + "\n" + cache);
+        }
+    }
+
+    /**
+     * Envía la respuesta del protocolo original, en una conexión nueva hacia el puerto del cliente.
+     * @param direccion La dirección del cliente.
+     * @param ele El puerto en el que el cliente espera la respuesta.
+     * @param resultado El resultado, el mensaje de error o el de ocupado.
+     */
+    static void responderDatos(InetAddress direccion, int ele, String resultado) throws IOException {
+        datos paquete = new datos();
+        paquete.setExpresion(resultado);
+        paquete.setPort(ele);
+        // Un cliente que no responde solo bloquea a su propio hilo, y como máximo durante tiempoConexion.
+        long inicio = System.nanoTime();
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(direccion, ele), tiempoConexion);
+            ObjectOutputStream salida = new ObjectOutputStream(socket.getOutputStream());
+            salida.writeObject(paquete);
+            salida.flush();
+        }
+        Metricas.RESPONDER.registrarDesde(inicio);
+    }
+
+    /**
+     * Evalúa la expresión de una solicitud del protocolo original en el grupo de cálculo, con la misma cola
+     * acotada y la misma espera máxima que las de los protocolos persistentes, y espera su resultado. La
+     * respuesta la envía después el hilo de la conexión, así los hilos de cálculo nunca esperan a un cliente.
+     * @param expresion La expresión matemática en notación infija.
+     * @return El resultado como texto, el mensaje de error, o "Ocupado: ..." si la solicitud no cupo en la cola
+     * o esperó demasiado en ella.
      */
-    public static int[] nuevo_cliente(int n, int[] arr, int ele)
-    {
-        int i;
+    static String evaluarEnCola(String expresion) throws InterruptedIOException {
+        long encolada = System.nanoTime();
+        Future<String> resultado;
+        try {
+            resultado = calculo.submit(() -> {
+                if (Admision.vencida(encolada)) {
+                    Metricas.rechazadas.increment();
+                    return "Ocupado: " + Admision.COLA_LLENA;
+                }
+                return evaluarSolicitud(expresion);
+            });
+        } catch (RejectedExecutionException e) {
+            Metricas.rechazadas.increment();
+            return "Ocupado: " + Admision.COLA_LLENA;
+        }
+        try {
+            return resultado.get();
+        } catch (InterruptedException e) {
+            resultado.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrumpido esperando el resultado de la expresión");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("No se pudo evaluar la expresión", e.getCause());
+        }
+    }
 
-        int[] new_arr = new int[n + 1];
+    /**
+     * Evalúa la expresión de un cliente usando la caché de programas compilados.
+     * @param expresion La expresión matemática en notación infija.
+     * @return El resultado como texto, o el mensaje de error si la expresión está mal formada o tiene variables.
+     */
+    public static String evaluar(String expresion) {
+        try {
+            return String.valueOf(calcular(expresion));
+        } catch (IllegalArgumentException e) {
+            // La expresión mal formada se reporta al cliente en lugar de detener el servidor.
+            return "Error: " + e.getMessage();
+        }
+    }
 
-        for (i = 0; i < n; i++) {
-            new_arr[i] = arr[i];
+    /**
+     * Evalúa la expresión de una solicitud recibida por el servidor, como {@link #evaluar(String)} pero
+     * rechazando las que superan el tamaño máximo de {@link Admision}.
+     * @param expresion La expresión matemática en notación infija.
+     * @return El resultado como texto, o el mensaje de error.
+     */
+    static String evaluarSolicitud(String expresion) {
+        try {
+            return String.valueOf(calcularSolicitud(expresion));
+        } catch (IllegalArgumentException e) {
+            return "Error: " + e.getMessage();
         }
-        new_arr[n] = ele;
+    }
 
-        return new_arr;
+    /**
+     * Calcula la expresión de una solicitud recibida por el servidor, como {@link #calcular(String)} pero
+     * rechazando antes de analizarla la que supera el tamaño máximo de {@link Admision}. La evaluación de
+     * archivos y el reconocimiento de imágenes llaman directamente a calcular.
+     * @param expresion La expresión matemática en notación infija.
+     * @return El resultado de la expresión.
+     * @throws IllegalArgumentException Si la expresión es demasiado larga, está mal formada o tiene variables.
+     */
+    static double calcularSolicitud(String expresion) {
+        try {
+            Admision.verificarTamano(expresion);
+        } catch (IllegalArgumentException e) {
+            Metricas.solicitudes.increment();
+            Metricas.errores.increment();
+            throw e;
+        }
+        return calcular(expresion);
     }
 
     /**
-     * Busca el cliente en la lista de clientes. Si el cliente no existe llama a la funcion nuevo_cliente.
-     * @param i Variable que indica el índice de la lista.
-     * @param arr Lista de clientes.
-     * @param ele El cliente que debe buscar.
-     * @param expresion La expresión matemática que recibió por parte del cliente.
+     * Calcula el valor de la expresión de un cliente usando la caché de programas compilados.
+     * @param expresion La expresión matemática en notación infija.
+     * @return El resultado de la expresión.
+     * @throws IllegalArgumentException Si la expresión está mal formada ({@link ErrorSintaxis}) o tiene variables.
      */
-    public static void buscar_cliente(int i, int[] arr, int ele, String expresion) throws IOException {
-        int n = arr.length;
-        if (i == n){
-            clientes += 1;
-            arr = nuevo_cliente(n, arr,ele);
-            System.out.println("Cantidad de clientes:" + clientes);
-            System.out.println("Puerto del cliente:" + ele);
-            lista = arr;
-        }
-        else{
-            if (arr[i] == ele){
-                String expresionPostfija = infijaAPostfija(expresion);
-                System.out.println("Expresión en notación postfija: " + expresionPostfija);
-                Nodo raiz = construirArbol(expresionPostfija);
-                double resultado = evaluarArbol(raiz);
-                System.out.println("Resultado de la expresión: " + resultado);
-                expresion = String.valueOf(resultado);
-                Socket socket = new Socket("192.168.1.6", ele);
-                datos paquete = new datos();
-                paquete.setExpresion(expresion);
-                paquete.setPort(ele);
-                ObjectOutputStream salida = new ObjectOutputStream(socket.getOutputStream());
-                salida.writeObject(paquete);
-                System.out.println("Lista de clientes"+Arrays.toString(lista));
-                salida.close();
+    public static double calcular(String expresion) {
+        Metricas.solicitudes.increment();
+        try {
+            Programa programa = cache.obtener(expresion == null ? "" : expresion);
+            long inicio = System.nanoTime();
+            double resultado = GeneradorClases.evaluar(programa, evaluadores.get());
+            Metricas.EVALUAR.registrarDesde(inicio);
+            if (Bitacora.solicitudes) {
+                Bitacora.escribir("Expresión en notación postfija: " + programa + "\nResultado de la expresión: " + resultado);
             }
-            else {
-                buscar_cliente(i+1,arr, ele, expresion);
+            return resultado;
+        } catch (IllegalArgumentException e) {
+            Metricas.errores.increment();
+            if (Bitacora.solicitudes) {
+                Bitacora.escribir("Expresión inválida: " + e.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Evalúa un lote de expresiones. Los lotes grandes se dividen en tramos que se evalúan en paralelo en el
+     * ForkJoinPool común. Un error en una expresión solo afecta a su propio elemento.
+     * @param expresiones Las expresiones en notación infija.
+     * @param valores Arreglo donde se guarda el resultado de cada expresión, en el mismo orden.
+     * @param errores Arreglo donde se guarda el mensaje de error de cada expresión inválida; queda null en las demás.
+     */
+    public static void calcularLote(String[] expresiones, double[] valores, String[] errores) {
+        if (expresiones.length < umbralLote) {
+            calcularTramo(expresiones, valores, errores, 0, expresiones.length);
+        } else {
+            ForkJoinPool.commonPool().invoke(new TramoLote(expresiones, valores, errores, 0, expresiones.length));
+        }
+    }
+
+    /**
+     * Evalúa un lote recibido por el servidor, como {@link #calcularLote} pero marcando como erróneas sin
+     * evaluarlas las expresiones que superan el tamaño máximo de {@link Admision}.
+     */
+    static void calcularLoteSolicitud(String[] expresiones, double[] valores, String[] errores) {
+        Metricas.errores.add(Admision.verificarTamano(expresiones, valores, errores));
+        calcularLote(expresiones, valores, errores);
+    }
+
+    /**
+     * Evalúa secuencialmente una parte de un lote. Los elementos que ya tienen un mensaje de error se omiten.
+     */
+    static void calcularTramo(String[] expresiones, double[] valores, String[] errores, int desde, int hasta) {
+        Evaluador evaluador = evaluadores.get();
+        Metricas.solicitudes.add(hasta - desde);
+        for (int i = desde; i < hasta; i++) {
+            if (errores[i] != null) {
+                continue; // Rechazada antes de evaluarla, por ejemplo por su tamaño.
+            }
+            try {
+                Programa programa = cache.obtener(expresiones[i] == null ? "" : expresiones[i]);
+                long inicio = System.nanoTime();
+                valores[i] = GeneradorClases.evaluar(programa, evaluador);
+                Metricas.EVALUAR.registrarDesde(inicio);
+            } catch (IllegalArgumentException e) {
+                valores[i] = Double.NaN;
+                errores[i] = e.getMessage();
+                Metricas.errores.increment();
+            }
+        }
+    }
+
+    /**
+     * Tarea que divide un tramo de un lote a la mitad hasta que es lo bastante pequeño para evaluarlo directamente.
+     */
+    static class TramoLote extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        static final int MINIMO = 64; // Expresiones por tramo que se evalúan sin dividir.
+        final String[] expresiones;
+        final double[] valores;
+        final String[] errores;
+        final int desde;
+        final int hasta;
+
+        TramoLote(String[] expresiones, double[] valores, String[] errores, int desde, int hasta) {
+            this.expresiones = expresiones;
+            this.valores = valores;
+            this.errores = errores;
+            this.desde = desde;
+            this.hasta = hasta;
+        }
+
+        @Override
+        protected void compute() {
+            if (hasta - desde <= MINIMO) {
+                calcularTramo(expresiones, valores, errores, desde, hasta);
+                return;
             }
+            int medio = (desde + hasta) >>> 1;
+            invokeAll(new TramoLote(expresiones, valores, errores, desde, medio),
+                      new TramoLote(expresiones, valores, errores, medio, hasta));
         }
     }
+
     public ArbolExpresion(){
         Thread hilo1 = new Thread(this);
         hilo1.start();
     }
 
     /**
-     * Hilo en el cual el sistema está a la espera de los clientes.
+     * Crea el ejecutor que atiende las conexiones. Si la propiedad calculadora.hilos es positiva se usa un
+     * grupo fijo de ese tamaño; si no, se usa un hilo virtual por conexión cuando la JVM lo permite (Java 21+)
+     * y, en caso contrario, un hilo de plataforma por conexión, porque una conexión persistente ocupa su
+     * hilo mientras esté abierta.
+     * @return El ejecutor de conexiones.
+     */
+    static ExecutorService crearEjecutor() {
+        int hilos = Integer.getInteger("calculadora.hilos", 0);
+        if (hilos > 0) {
+            return Executors.newFixedThreadPool(hilos);
+        }
+        try {
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Crea un hilo sin iniciarlo, del mismo tipo que los de las conexiones: virtual cuando la JVM lo permite
+     * (Java 21+) y, si no, un hilo de plataforma de tipo daemon.
+     * @param tarea Lo que ejecuta el hilo.
+     * @param nombre El nombre del hilo.
+     * @return El hilo, sin iniciar.
+     */
+    static Thread crearHilo(Runnable tarea, String nombre) {
+        try {
+            Class<?> constructor = Class.forName("java.lang.Thread$Builder");
+            Object virtual = Thread.class.getMethod("ofVirtual").invoke(null);
+            virtual = constructor.getMethod("name", String.class).invoke(virtual, nombre);
+            return (Thread) constructor.getMethod("unstarted", Runnable.class).invoke(virtual, tarea);
+        } catch (ReflectiveOperationException e) {
+            Thread hilo = new Thread(tarea, nombre);
+            hilo.setDaemon(true);
+            return hilo;
+        }
+    }
+
+    /**
+     * Atiende una conexión. Una conexión que empieza con una trama binaria usa el protocolo persistente de
+     * {@link Protocolo}. Una que empieza con un flujo de objetos serializados solo se acepta en modo de
+     * compatibilidad: si el primer objeto es un paquete datos se usa el protocolo original, en el que la
+     * respuesta se envía a una conexión nueva hacia el puerto del cliente, y si es una Solicitud se usa
+     * el protocolo persistente con objetos serializados.
+     * @param misocket La conexión aceptada.
+     * @param aceptada El instante (System.nanoTime()) en que se aceptó la conexión.
+     */
+    static void atender(Socket misocket, long aceptada) {
+        Metricas.ACEPTAR.registrarDesde(aceptada);
+        Metricas.conexionesAbiertas.increment();
+        try (Socket conexion = misocket) {
+            BufferedInputStream bytes = new BufferedInputStream(conexion.getInputStream());
+            bytes.mark(1);
+            int inicio = bytes.read();
+            bytes.reset();
+            if (inicio < 0) {
+                return;
+            }
+            // Un flujo de objetos siempre empieza con 0xACED; una trama binaria, con el byte alto de su largo (0x00).
+            if (inicio != 0xAC) {
+                atenderBinario(conexion, bytes);
+                return;
+            }
+            if (!compatibilidad) {
+                Bitacora.escribir("Conexión rechazada: el servidor no acepta objetos serializados");
+                return;
+            }
+            long lectura = System.nanoTime();
+            ObjectInputStream entrada = new ObjectInputStream(bytes);
+            entrada.setObjectInputFilter(filtro);
+            Object primero = entrada.readObject();
+            Metricas.DESERIALIZAR.registrarDesde(lectura);
+            if (primero instanceof Solicitud) {
+                atenderPersistente(conexion, entrada, (Solicitud) primero);
+                return;
+            }
+            datos mensaje = (datos) primero;
+            buscar_cliente(conexion.getInetAddress(), mensaje.getPort(), mensaje.getExpresion());
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            // El error de un cliente no debe detener al resto del servidor.
+            Metricas.erroresConexion.increment();
+            Bitacora.escribir("Error al atender al cliente: " + e);
+        } finally {
+            Metricas.conexionesAbiertas.decrement();
+            Admision.conexiones.release();
+        }
+    }
+
+    /**
+     * Atiende una conexión persistente con tramas binarias hasta que el cliente la cierra. Cada solicitud se
+     * evalúa en el grupo de cálculo mientras se sigue leyendo la siguiente, y su respuesta la escribe el
+     * {@link EscritorRespuestas} de la conexión en cuanto está lista. Una solicitud que excede el límite de tasa
+     * de la conexión o que no cabe en la cola de cálculo se responde enseguida con una trama OCUPADO. Antes de
+     * cerrar se espera a que se envíen todas las respuestas pendientes.
+     * @param conexion La conexión del cliente.
+     * @param entrada El flujo de bytes de la conexión, sin consumir.
+     */
+    static void atenderBinario(Socket conexion, InputStream entrada) throws IOException {
+        conexion.setTcpNoDelay(true);
+        EntradaTramas tramas = new EntradaTramas(entrada);
+        SalidaTramas salida = new SalidaTramas(new BufferedOutputStream(conexion.getOutputStream()), false);
+        EscritorRespuestas escritor = new EscritorRespuestas(conexion, salida, "escritor-" + conexion.getPort());
+        Trama trama = new Trama();
+        Admision.Limite limite = new Admision.Limite();
+        try {
+            while (tramas.leer(trama)) {
+                long id = trama.id;
+                long encolada = System.nanoTime();
+                escritor.reservar();
+                Runnable tarea;
+                if (trama.tipo == Protocolo.LOTE) {
+                    String[] expresiones = trama.expresiones;
+                    tarea = () -> responderLote(escritor, salida, id, expresiones, encolada);
+                } else if (trama.tipo == Protocolo.SOLICITUD) {
+                    String expresion = trama.texto;
+                    tarea = () -> responder(escritor, salida, id, expresion, encolada);
+                } else {
+                    escritor.enviar(() -> salida.error(id, "Se esperaba una solicitud"));
+                    continue;
+                }
+                if (!limite.admitir()) {
+                    rechazar(escritor, salida, id, Admision.DEMASIADAS);
+                    continue;
+                }
+                try {
+                    calculo.execute(tarea);
+                } catch (RejectedExecutionException e) {
+                    rechazar(escritor, salida, id, Admision.COLA_LLENA);
+                }
+            }
+        } finally {
+            escritor.cerrar();
+        }
+    }
+
+    /**
+     * Responde una solicitud binaria con una trama OCUPADO, sin evaluarla.
+     */
+    static void rechazar(EscritorRespuestas escritor, SalidaTramas salida, long id, String motivo) {
+        Metricas.rechazadas.increment();
+        escritor.enviar(() -> salida.ocupado(id, motivo));
+    }
+
+    /**
+     * Evalúa una solicitud binaria y deja su resultado o su error en el escritor de la conexión.
+     * @param escritor El escritor de respuestas de la conexión.
+     * @param salida La salida de tramas de la conexión, que solo usa el escritor.
+     * @param id El identificador de la solicitud.
+     * @param expresion La expresión a evaluar.
+     * @param encolada El instante (System.nanoTime()) en que la solicitud entró en la cola de cálculo.
+     */
+    static void responder(EscritorRespuestas escritor, SalidaTramas salida, long id, String expresion, long encolada) {
+        if (Admision.vencida(encolada)) {
+            rechazar(escritor, salida, id, Admision.COLA_LLENA);
+            return;
+        }
+        try {
+            double resultado = calcularSolicitud(expresion);
+            escritor.enviar(() -> {
+                long inicio = System.nanoTime();
+                salida.resultado(id, resultado);
+                Metricas.RESPONDER.registrarDesde(inicio);
+            });
+        } catch (IllegalArgumentException e) {
+            String mensaje = e.getMessage();
+            escritor.enviar(() -> salida.error(id, mensaje));
+        }
+    }
+
+    /**
+     * Evalúa un lote de expresiones y deja todos sus resultados, en una sola trama, en el escritor de la conexión.
+     * @param escritor El escritor de respuestas de la conexión.
+     * @param salida La salida de tramas de la conexión, que solo usa el escritor.
+     * @param id El identificador de la solicitud.
+     * @param expresiones Las expresiones del lote.
+     * @param encolada El instante (System.nanoTime()) en que el lote entró en la cola de cálculo.
+     */
+    static void responderLote(EscritorRespuestas escritor, SalidaTramas salida, long id, String[] expresiones, long encolada) {
+        if (Admision.vencida(encolada)) {
+            rechazar(escritor, salida, id, Admision.COLA_LLENA);
+            return;
+        }
+        double[] valores = new double[expresiones.length];
+        String[] errores = new String[expresiones.length];
+        calcularLoteSolicitud(expresiones, valores, errores);
+        escritor.enviar(() -> {
+            long inicio = System.nanoTime();
+            salida.resultadoLote(id, valores, errores);
+            Metricas.RESPONDER.registrarDesde(inicio);
+        });
+    }
+
+    /**
+     * Atiende una conexión persistente con objetos serializados hasta que el cliente la cierra. Cada solicitud se evalúa en el grupo
+     * de cálculo mientras se sigue leyendo la siguiente, por lo que las respuestas pueden llegar en otro orden;
+     * el cliente las asocia por su identificador. Las respuestas las escribe el {@link EscritorRespuestas} de la
+     * conexión, que también limita cuántas pueden estar pendientes; antes de cerrar se espera a que se envíen todas.
+     * @param conexion La conexión del cliente.
+     * @param entrada El flujo de objetos de la conexión.
+     * @param primera La primera solicitud, ya leída.
+     */
+    static void atenderPersistente(Socket conexion, ObjectInputStream entrada, Solicitud primera) throws IOException, ClassNotFoundException {
+        ObjectOutputStream salida = new ObjectOutputStream(new BufferedOutputStream(conexion.getOutputStream()));
+        salida.flush();
+        EscritorRespuestas escritor = new EscritorRespuestas(conexion, salida, "escritor-" + conexion.getPort());
+        Solicitud solicitud = primera;
+        Admision.Limite limite = new Admision.Limite();
+        try {
+            while (true) {
+                Solicitud actual = solicitud;
+                long encolada = System.nanoTime();
+                escritor.reservar();
+                if (!limite.admitir()) {
+                    Metricas.rechazadas.increment();
+                    escribir(escritor, salida, new Respuesta(actual.getId(), "Ocupado: " + Admision.DEMASIADAS));
+                } else {
+                    try {
+                        calculo.execute(() -> responder(escritor, salida, actual, encolada));
+                    } catch (RejectedExecutionException e) {
+                        Metricas.rechazadas.increment();
+                        escribir(escritor, salida, new Respuesta(actual.getId(), "Ocupado: " + Admision.COLA_LLENA));
+                    }
+                }
+                solicitud = (Solicitud) entrada.readObject();
+            }
+        } catch (EOFException e) {
+            // El cliente cerró la conexión.
+        } finally {
+            escritor.cerrar();
+        }
+    }
+
+    /**
+     * Evalúa una solicitud y deja su respuesta en el escritor de la conexión persistente.
+     * @param escritor El escritor de respuestas de la conexión.
+     * @param salida El flujo de objetos de la conexión, que solo usa el escritor.
+     * @param solicitud La solicitud a responder.
+     * @param encolada El instante (System.nanoTime()) en que la solicitud entró en la cola de cálculo.
+     */
+    static void responder(EscritorRespuestas escritor, ObjectOutputStream salida, Solicitud solicitud, long encolada) {
+        String resultado;
+        if (Admision.vencida(encolada)) {
+            Metricas.rechazadas.increment();
+            resultado = "Ocupado: " + Admision.COLA_LLENA;
+        } else {
+            resultado = evaluarSolicitud(solicitud.getExpresion());
+        }
+        escribir(escritor, salida, new Respuesta(solicitud.getId(), resultado));
+    }
+
+    /**
+     * Encola una respuesta para una conexión persistente con objetos serializados; se escribe en el hilo del
+     * escritor.
+     * @param escritor El escritor de respuestas de la conexión.
+     * @param salida El flujo de objetos de la conexión, que solo usa el escritor.
+     * @param respuesta La respuesta a enviar.
+     */
+    static void escribir(EscritorRespuestas escritor, ObjectOutputStream salida, Respuesta respuesta) {
+        escritor.enviar(() -> {
+            long inicio = System.nanoTime();
+            salida.writeObject(respuesta);
+            salida.reset(); // Evita que el flujo retenga cada respuesta enviada.
+            Metricas.RESPONDER.registrarDesde(inicio);
+        });
+    }
+
+    /**
+     * Hilo en el cual el sistema está a la espera de los clientes. Cada conexión aceptada se atiende en
+     * el ejecutor, de modo que un cliente lento no retrasa a los demás. Si ya se atiende el máximo de conexiones
+     * de {@link Admision}, la conexión nueva se cierra enseguida y el cliente recibe un error en lugar de esperar.
      */
     @Override
     public void run() {
+        ExecutorService ejecutor = crearEjecutor();
+        // Limpieza periódica de los clientes inactivos, para que el registro no crezca sin límite.
+        long periodo = Math.max(1000, clientes.getInactividadMaxima() / 2);
+        ScheduledExecutorService limpieza = Executors.newSingleThreadScheduledExecutor(tarea -> {
+            Thread hilo = new Thread(tarea, "limpieza-clientes");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        limpieza.scheduleAtFixedRate(() -> {
+            int desalojados = clientes.desalojarInactivos();
+            if (desalojados > 0) {
+                Bitacora.escribir("Clientes inactivos desalojados: " + desalojados);
+            }
+        }, periodo, periodo, TimeUnit.MILLISECONDS);
         try {
-            ServerSocket receptor = new ServerSocket(9999);
-            System.out.println("Conectado");
+            ServerSocket receptor = new ServerSocket(9999, 1024);
+            Bitacora.escribir("Conectado");
             while (true) {
-                String expresion;
-                int puerto;
-                datos mensaje;
                 Socket misocket = receptor.accept();
-                ObjectInputStream entrada = new ObjectInputStream(misocket.getInputStream());
-                mensaje = (datos) entrada.readObject();
-                puerto = mensaje.getPort();
-                expresion = mensaje.getExpresion();
-                buscar_cliente(0, lista, puerto, expresion);
-                misocket.close();
+                long aceptada = System.nanoTime();
+                if (!Admision.conexiones.tryAcquire()) {
+                    rechazarOcupada(misocket);
+                    continue;
+                }
+                try {
+                    ejecutor.execute(() -> atender(misocket, aceptada));
+                } catch (RejectedExecutionException e) {
+                    Admision.conexiones.release();
+                    rechazarOcupada(misocket);
+                }
             }
-        } catch (IOException | ClassNotFoundException e1) {
+        } catch (IOException e1) {
             throw new RuntimeException(e1);
+        } finally {
+            ejecutor.shutdown();
+            limpieza.shutdown();
         }
     }
-    public static void main(String[] args) {
+    /**
+     * Rechaza una conexión que excede el máximo de conexiones. Si el hilo de rechazos tiene lugar en su cola,
+     * responde como ocupada la primera solicitud de la conexión; si no, la cierra enseguida.
+     * @param misocket La conexión rechazada.
+     */
+    static void rechazarOcupada(Socket misocket) {
+        try {
+            rechazos.execute(() -> responderOcupada(misocket));
+        } catch (RejectedExecutionException e) {
+            rechazar(misocket);
+        }
+    }
+
+    /**
+     * Lee la primera solicitud de una conexión rechazada y la responde como ocupada por el mismo protocolo, sin
+     * evaluarla; después cierra la conexión. Cada lectura espera como máximo tiempoConexion milisegundos, para
+     * que un cliente que no envía nada no detenga por mucho tiempo los demás rechazos.
+     * @param misocket La conexión rechazada.
+     */
+    static void responderOcupada(Socket misocket) {
+        Metricas.conexionesRechazadas.increment();
+        String motivo = Admision.COLA_LLENA;
+        try (Socket conexion = misocket) {
+            conexion.setSoTimeout(tiempoConexion);
+            BufferedInputStream bytes = new BufferedInputStream(conexion.getInputStream());
+            bytes.mark(1);
+            int inicio = bytes.read();
+            bytes.reset();
+            if (inicio < 0) {
+                return;
+            }
+            if (inicio != 0xAC) {
+                Trama trama = new Trama();
+                if (new EntradaTramas(bytes).leer(trama)) {
+                    Metricas.rechazadas.increment();
+                    new SalidaTramas(new BufferedOutputStream(conexion.getOutputStream())).ocupado(trama.id, motivo);
+                }
+            } else if (compatibilidad) {
+                ObjectInputStream entrada = new ObjectInputStream(bytes);
+                entrada.setObjectInputFilter(filtro);
+                Object primero = entrada.readObject();
+                Metricas.rechazadas.increment();
+                if (primero instanceof Solicitud) {
+                    ObjectOutputStream salida = new ObjectOutputStream(conexion.getOutputStream());
+                    salida.writeObject(new Respuesta(((Solicitud) primero).getId(), "Ocupado: " + motivo));
+                    salida.flush();
+                } else {
+                    datos mensaje = (datos) primero;
+                    responderDatos(conexion.getInetAddress(), mensaje.getPort(), "Ocupado: " + motivo);
+                }
+            }
+            // Se descarta lo que el cliente ya envió, para que el cierre no se convierta en un RST antes de que lea la respuesta.
+            conexion.shutdownOutput();
+            bytes.skip(bytes.available());
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            Metricas.erroresConexion.increment();
+            Bitacora.escribir("No se pudo rechazar la conexión: " + e);
+        }
+    }
+
+    /**
+     * Cierra una conexión sin atenderla. Con SO_LINGER en 0 el cierre envía un RST, así el cliente se entera de
+     * inmediato y el servidor no deja la conexión en TIME_WAIT.
+     * @param misocket La conexión rechazada.
+     */
+    static void rechazar(Socket misocket) {
+        Metricas.conexionesRechazadas.increment();
+        try {
+            misocket.setSoLinger(true, 0);
+            misocket.close();
+        } catch (IOException e) {
+            // La conexión ya está cerrada.
+        }
+    }
+
+    /**
+     * Inicia el servidor. Con -Dcalculadora.servidor.modo=nio se usa el servidor no bloqueante, que solo
+     * acepta el protocolo binario; -Dcalculadora.nio.hilos indica cuántos hilos de entrada/salida usa.
+     * Las métricas se publican por JMX (ver {@link Metricas}).
+     * Con los argumentos --archivo entrada salida no inicia el servidor: evalúa un archivo de expresiones y
+     * termina (ver {@link EvaluadorArchivo}).
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("--archivo")) {
+            EvaluadorArchivo.main(args);
+            return;
+        }
+        Metricas.iniciar();
+        if ("nio".equals(System.getProperty("calculadora.servidor.modo"))) {
+            int hilos = Integer.getInteger("calculadora.nio.hilos", Math.max(1, Runtime.getRuntime().availableProcessors() / 4));
+            new Thread(new ServidorNio(9999, hilos, calculo), "servidor-nio").start();
+            return;
+        }
         ArbolExpresion arbol = new ArbolExpresion();
     }
 }
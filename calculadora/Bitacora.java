@@ -0,0 +1,56 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bitácora asíncrona del servidor. Los mensajes se encolan y un único hilo los escribe en la salida estándar,
+ * así los hilos que atienden solicitudes nunca esperan al candado de System.out. La cola está limitada: si se
+ * llena, los mensajes nuevos se descartan y se cuentan en lugar de bloquear al hilo que los escribe.
+ * <p>
+ * Los mensajes de cada solicitud (expresión, resultado, clientes) solo se construyen si
+ * {@link #solicitudes} está activo; se desactivan con -Dcalculadora.bitacora.solicitudes=false.
+ */
+public final class Bitacora {
+    static boolean solicitudes = !"false".equals(System.getProperty("calculadora.bitacora.solicitudes"));
+    static final int CAPACIDAD = 8192; // Mensajes pendientes de escribir como máximo.
+
+    private static final BlockingQueue<String> pendientes = new ArrayBlockingQueue<>(CAPACIDAD);
+    private static final LongAdder descartados = new LongAdder();
+
+    static {
+        Thread escritor = new Thread(Bitacora::escribirPendientes, "bitacora");
+        escritor.setDaemon(true);
+        escritor.start();
+    }
+
+    private Bitacora() {
+    }
+
+    /**
+     * Encola un mensaje sin bloquear.
+     *
+     * @param mensaje El mensaje a escribir.
+     */
+    public static void escribir(String mensaje) {
+        if (!pendientes.offer(mensaje)) {
+            descartados.increment();
+        }
+    }
+
+    /**
+     * @return La cantidad de mensajes descartados porque la cola estaba llena.
+     */
+    public static long getDescartados() {
+        return descartados.sum();
+    }
+
+    private static void escribirPendientes() {
+        while (true) {
+            try {
+                System.out.println(pendientes.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
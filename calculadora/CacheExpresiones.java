@@ -0,0 +1,147 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caché de programas compilados con capacidad limitada y desalojo LRU (el menos usado recientemente).
+ * Los programas se guardan ya optimizados por {@link Optimizador}.
+ * La clave es el texto de la expresión sin espacios en blanco, así "1 + 2" y "1+2" comparten entrada.
+ * Es segura para usarse desde varios hilos; el análisis de una expresión nueva se hace fuera del candado.
+ */
+public class CacheExpresiones {
+    private final int capacidad;
+    private final LinkedHashMap<String, Programa> programas;
+    private final ThreadLocal<Analizador> analizadores = ThreadLocal.withInitial(Analizador::new);
+
+    private final LongAdder aciertos = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+    private final LongAdder desalojos = new LongAdder();
+
+    /**
+     * Crea una caché vacía.
+     *
+     * @param capacidad Cantidad máxima de expresiones que se guardan.
+     */
+    public CacheExpresiones(int capacidad) {
+        if (capacidad < 1) {
+            throw new IllegalArgumentException("La capacidad de la caché debe ser positiva: " + capacidad);
+        }
+        this.capacidad = capacidad;
+        // El orden de acceso hace que el primer elemento sea siempre el menos usado recientemente.
+        this.programas = new LinkedHashMap<String, Programa>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Programa> mayor) {
+                if (size() > CacheExpresiones.this.capacidad) {
+                    desalojos.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Obtiene el programa compilado de una expresión, compilándolo y guardándolo si no estaba en la caché.
+     *
+     * @param expresion La expresión en notación infija.
+     * @return El programa compilado de la expresión.
+     * @throws ErrorSintaxis Si la expresión está mal formada. Las expresiones inválidas no se guardan.
+     */
+    public Programa obtener(String expresion) {
+        String clave = normalizar(expresion);
+        Programa programa;
+        synchronized (programas) {
+            programa = programas.get(clave);
+        }
+        if (programa != null) {
+            aciertos.increment();
+            return programa;
+        }
+
+        fallos.increment();
+        // Se analiza el texto original para que la posición de un error coincida con lo que escribió el cliente.
+        long inicio = System.nanoTime();
+        programa = analizadores.get().analizar(expresion);
+        Metricas.ANALIZAR.registrarDesde(inicio);
+        if (Optimizador.activo) {
+            inicio = System.nanoTime();
+            programa = Optimizador.optimizar(programa);
+            Metricas.CONSTRUIR.registrarDesde(inicio);
+        }
+        synchronized (programas) {
+            Programa previo = programas.putIfAbsent(clave, programa);
+            return previo != null ? previo : programa;
+        }
+    }
+
+    /**
+     * Elimina los espacios en blanco de una expresión. Un espacio entre dos caracteres de un mismo operando
+     * (por ejemplo "1 2") se conserva como un solo espacio, para no convertir una expresión inválida en otra válida.
+     *
+     * @param expresion La expresión en notación infija.
+     * @return La expresión sin espacios, o la misma cadena si no tenía.
+     */
+    static String normalizar(String expresion) {
+        int i = 0;
+        while (i < expresion.length() && !Character.isWhitespace(expresion.charAt(i))) {
+            i++;
+        }
+        if (i == expresion.length()) {
+            return expresion;
+        }
+        StringBuilder texto = new StringBuilder(expresion.length());
+        texto.append(expresion, 0, i);
+        boolean espacio = false;
+        for (; i < expresion.length(); i++) {
+            char c = expresion.charAt(i);
+            if (Character.isWhitespace(c)) {
+                espacio = true;
+                continue;
+            }
+            if (espacio && texto.length() > 0 && esDeOperando(texto.charAt(texto.length() - 1)) && esDeOperando(c)) {
+                texto.append(' ');
+            }
+            espacio = false;
+            texto.append(c);
+        }
+        return texto.toString();
+    }
+
+    /**
+     * Verifica si un carácter puede formar parte de un operando.
+     *
+     * @param c El carácter a verificar.
+     * @return true si es una letra, un dígito, un punto o un guion bajo.
+     */
+    private static boolean esDeOperando(char c) {
+        return Character.isLetterOrDigit(c) || c == '.' || c == '_';
+    }
+
+    public int getCapacidad() {
+        return capacidad;
+    }
+
+    public int getTamano() {
+        synchronized (programas) {
+            return programas.size();
+        }
+    }
+
+    public long getAciertos() {
+        return aciertos.sum();
+    }
+
+    public long getFallos() {
+        return fallos.sum();
+    }
+
+    public long getDesalojos() {
+        return desalojos.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "Caché de expresiones: " + getTamano() + "/" + capacidad + " (aciertos=" + getAciertos()
+                + ", fallos=" + getFallos() + ", desalojos=" + getDesalojos() + ")";
+    }
+}
@@ -9,21 +9,35 @@ import java.net.UnknownHostException;
 
 /**
  * Clase principal del cliente que se conecta al servidor y abre la ventana de la calculadora.
+ * Con el argumento --carga no abre ninguna ventana y simula muchos clientes a la vez (ver {@link GeneradorCarga}).
  */
 public class Cliente {
     static int max = 9990;
     static int min = 9000;
     static int puerto = (int) (Math.random() * (max - min)) + min; // Número del puerto del cliente.
-
-    public static void main(String[] args) throws IOException {
+    static String servidor = System.getProperty("calculadora.servidor", "192.168.1.6"); // Dirección del servidor.
+    // Con el protocolo persistente todas las solicitudes viajan por una sola conexión y el cliente no abre ningún puerto.
+    // Con -Dcalculadora.protocolo=legado se usa el protocolo original de registro y conexión de vuelta.
+    static boolean persistente = !"legado".equals(System.getProperty("calculadora.protocolo"));
+    static ConexionPersistente conexion; // Conexión con el servidor en el protocolo persistente.
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("--carga")) {
+            GeneradorCarga.main(args);
+            return;
+        }
         System.out.println("Hola");
-        Socket socket = new Socket("192.168.1.6", 9999);
-        datos paquete = new datos();
-        paquete.setPort(puerto);
-        paquete.setExpresion(null);
-        ObjectOutputStream salida = new ObjectOutputStream(socket.getOutputStream());
-        salida.writeObject(paquete);
-        salida.close();
+        if (persistente) {
+            conexion = new ConexionPersistente(servidor, 9999);
+        } else {
+            Socket socket = new Socket(servidor, 9999);
+            datos paquete = new datos();
+            paquete.setPort(puerto);
+            paquete.setExpresion(null);
+            ObjectOutputStream salida = new ObjectOutputStream(socket.getOutputStream());
+            salida.writeObject(paquete);
+            salida.close();
+        }
         Ventana ventana1 = new Ventana();
         ventana1.setVisible(true);
     }
@@ -75,8 +89,10 @@ class panel extends JPanel implements Runnable {
         }
         add(buttonPanel, BorderLayout.SOUTH);
 
-        Thread hilo1 = new Thread(this);
-        hilo1.start();
+        if (!Cliente.persistente) {
+            Thread hilo1 = new Thread(this);
+            hilo1.start();
+        }
     }
 
     /**
@@ -87,8 +103,12 @@ class panel extends JPanel implements Runnable {
         public void actionPerformed(ActionEvent e) {
             JButton button = (JButton) e.getSource();
             if (button.getText().equals("=")) {
+                if (Cliente.persistente) {
+                    Cliente.conexion.enviar(txt.getText(), resultado -> SwingUtilities.invokeLater(() -> txt_area.setText(resultado)));
+                    return;
+                }
                 try {
-                    Socket misocket = new Socket("192.168.1.6", 9999);
+                    Socket misocket = new Socket(Cliente.servidor, 9999);
                     datos mensaje = new datos();
                     mensaje.setPort(Cliente.puerto);
                     mensaje.setExpresion(txt.getText());
@@ -99,6 +119,7 @@ class panel extends JPanel implements Runnable {
                     e1.printStackTrace();
                 } catch (IOException e1) {
                     System.out.println(e1.getMessage());
+                    txt_area.setText("Error: " + e1.getMessage()); // Por ejemplo, el servidor rechazó la conexión.
                 }
             } else if (button.getText().equals("C")) {
                 txt.setText("");
@@ -131,29 +152,5 @@ class panel extends JPanel implements Runnable {
     }
 }
 
-/**
- * Clase que funciona como un paquete de datos que contiene el puerto del cliente y la expresión matemática para ser enviado al servidor.
- */
-class datos implements Serializable {
-    private String expresion;
-    private int port;
-
-    public String getExpresion() {
-        return expresion;
-    }
-
-    public void setExpresion(String ip) {
-        this.expresion = ip;
-    }
-
-    public int getPort() {
-        return port;
-    }
-
-    public void setPort(int port) {
-        this.port = port;
-    }
-}
-
 
 
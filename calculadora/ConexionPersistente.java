@@ -0,0 +1,153 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Conexión de larga duración con el servidor. Permite enviar varias solicitudes seguidas sin esperar las
+ * respuestas; un hilo lector recibe cada respuesta y se la entrega a quien envió la solicitud con el mismo id.
+ * Las solicitudes y respuestas viajan como tramas binarias de {@link Protocolo}.
+ */
+class ConexionPersistente implements Runnable {
+    private final Socket socket;
+    private final SalidaTramas salida;
+    private final AtomicLong siguienteId = new AtomicLong();
+    private final Map<Long, Consumer<Trama>> pendientes = new ConcurrentHashMap<>(); // Solicitudes sin respuesta.
+    private volatile boolean cerrada; // La cerró el propio cliente; su fin no se informa.
+    private volatile boolean terminada; // El lector ya no recibe respuestas: las solicitudes nuevas fallan enseguida.
+
+    public ConexionPersistente(String servidor, int puerto) throws IOException {
+        socket = new Socket(servidor, puerto);
+        socket.setTcpNoDelay(true);
+        salida = new SalidaTramas(new BufferedOutputStream(socket.getOutputStream()));
+        Thread lector = new Thread(this, "lector-respuestas");
+        lector.setDaemon(true);
+        lector.start();
+    }
+
+    /**
+     * Envía una expresión al servidor sin esperar la respuesta. Si la conexión ya terminó, el error se
+     * informa enseguida.
+     * @param expresion La expresión matemática a evaluar.
+     * @param alResponder Función que recibe el resultado cuando llega.
+     * @return El identificador de la solicitud.
+     */
+    public long enviar(String expresion, Consumer<String> alResponder) {
+        long id = siguienteId.incrementAndGet();
+        if (!registrar(id, trama -> alResponder.accept(trama.tipo == Protocolo.RESULTADO ? String.valueOf(trama.valor)
+                : (trama.tipo == Protocolo.OCUPADO ? "Ocupado: " : "Error: ") + trama.texto))) {
+            return id;
+        }
+        try {
+            salida.solicitud(id, expresion == null ? "" : expresion);
+        } catch (IOException e) {
+            fallar(id, e.getMessage());
+        }
+        return id;
+    }
+
+    /**
+     * Envía varias expresiones en una sola solicitud, sin esperar la respuesta. Los resultados llegan juntos
+     * y en el mismo orden que las expresiones.
+     * @param expresiones Las expresiones matemáticas a evaluar.
+     * @param alResponder Función que recibe los resultados y los mensajes de error (null en los elementos sin error).
+     * @return El identificador de la solicitud.
+     */
+    public long enviarLote(String[] expresiones, BiConsumer<double[], String[]> alResponder) {
+        long id = siguienteId.incrementAndGet();
+        if (!registrar(id, trama -> {
+            if (trama.tipo == Protocolo.RESULTADO_LOTE) {
+                alResponder.accept(trama.valores, trama.errores);
+            } else {
+                fallarLote(expresiones.length, trama.texto, alResponder);
+            }
+        })) {
+            return id;
+        }
+        try {
+            salida.lote(id, expresiones);
+        } catch (IOException e) {
+            fallar(id, e.getMessage());
+        }
+        return id;
+    }
+
+    /**
+     * Registra la función que recibe la respuesta de una solicitud. Si la conexión ya terminó, la llama
+     * enseguida con un error y no se debe enviar la solicitud.
+     * @return true si la solicitud puede enviarse.
+     */
+    private boolean registrar(long id, Consumer<Trama> alResponder) {
+        pendientes.put(id, alResponder);
+        if (terminada) {
+            // El lector pudo vaciar las pendientes antes de este registro: quien la quite primero la responde.
+            fallar(id, "conexión cerrada");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Responde una solicitud pendiente con una trama de error, si nadie la respondió todavía.
+     */
+    private void fallar(long id, String mensaje) {
+        Consumer<Trama> alResponder = pendientes.remove(id);
+        if (alResponder != null) {
+            Trama error = new Trama();
+            error.tipo = Protocolo.ERROR;
+            error.id = id;
+            error.texto = mensaje;
+            alResponder.accept(error);
+        }
+    }
+
+    private static void fallarLote(int cantidad, String mensaje, BiConsumer<double[], String[]> alResponder) {
+        double[] valores = new double[cantidad];
+        String[] errores = new String[cantidad];
+        Arrays.fill(valores, Double.NaN);
+        Arrays.fill(errores, mensaje);
+        alResponder.accept(valores, errores);
+    }
+
+    /**
+     * Hilo que recibe las respuestas del servidor, en cualquier orden. Cuando la conexión termina, las
+     * solicitudes que siguen sin respuesta reciben un error "conexión cerrada".
+     */
+    @Override
+    public void run() {
+        try {
+            EntradaTramas entrada = new EntradaTramas(new BufferedInputStream(socket.getInputStream()));
+            Trama trama = new Trama();
+            while (entrada.leer(trama)) {
+                Consumer<Trama> alResponder = pendientes.remove(trama.id);
+                if (alResponder != null) {
+                    alResponder.accept(trama);
+                }
+            }
+            if (!cerrada) {
+                System.out.println("Conexión con el servidor cerrada");
+            }
+        } catch (IOException e) {
+            if (!cerrada) {
+                System.out.println("Conexión con el servidor cerrada: " + e.getMessage());
+            }
+        } finally {
+            terminada = true;
+            for (Long id : pendientes.keySet()) {
+                fallar(id, "conexión cerrada");
+            }
+        }
+    }
+
+    public void cerrar() throws IOException {
+        cerrada = true;
+        terminada = true;
+        socket.close();
+    }
+}
@@ -0,0 +1,67 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Lee tramas de un flujo bloqueante usando un mismo búfer para todas.
+ */
+class EntradaTramas {
+    static final int INICIAL = 512; // Capacidad inicial de los búferes de las tramas de un flujo.
+
+    private final InputStream entrada;
+    private ByteBuffer bufer = ByteBuffer.allocate(INICIAL);
+
+    EntradaTramas(InputStream entrada) {
+        this.entrada = entrada;
+    }
+
+    /**
+     * Lee la siguiente trama del flujo.
+     *
+     * @param destino La trama donde se guardan los campos leídos.
+     * @return false si el flujo terminó antes de empezar una trama.
+     * @throws IOException Si la trama no es válida o el flujo termina a mitad de una.
+     */
+    boolean leer(Trama destino) throws IOException {
+        bufer.clear();
+        if (!leerCompleto(bufer.array(), 0, 4, true)) {
+            return false;
+        }
+        int largo = bufer.getInt(0) + 4;
+        if (largo < Protocolo.ENCABEZADO || largo > Protocolo.MAXIMO) {
+            throw new ProtocolException("Largo de trama inválido: " + (largo - 4));
+        }
+        // Toda trama válida tiene el encabezado completo: con el tipo se verifica el largo antes de agrandar el búfer.
+        leerCompleto(bufer.array(), 4, Protocolo.ENCABEZADO - 4, false);
+        Protocolo.validarTipo(largo, bufer.get(5));
+        if (bufer.capacity() < largo) {
+            ByteBuffer mayor = Protocolo.asegurar(bufer, largo);
+            mayor.put(bufer.array(), 0, Protocolo.ENCABEZADO);
+            bufer = mayor;
+        }
+        leerCompleto(bufer.array(), Protocolo.ENCABEZADO, largo - Protocolo.ENCABEZADO, false);
+        bufer.position(0).limit(largo);
+        long inicio = System.nanoTime();
+        Protocolo.decodificar(bufer, destino);
+        Metricas.DESERIALIZAR.registrarDesde(inicio);
+        bufer = Protocolo.reducir(bufer, INICIAL);
+        return true;
+    }
+
+    private boolean leerCompleto(byte[] arreglo, int desde, int cantidad, boolean puedeTerminar) throws IOException {
+        int leidos = 0;
+        while (leidos < cantidad) {
+            int n = entrada.read(arreglo, desde + leidos, cantidad - leidos);
+            if (n < 0) {
+                if (leidos == 0 && puedeTerminar) {
+                    return false;
+                }
+                throw new EOFException("La conexión terminó a mitad de una trama");
+            }
+            leidos += n;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,17 @@
+/**
+ * Error producido al analizar una expresión mal formada. Indica la posición del carácter donde se detectó.
+ */
+public class ErrorSintaxis extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    private final int posicion; // Posición (desde 0) del carácter donde se detectó el error.
+
+    public ErrorSintaxis(String mensaje, int posicion) {
+        super(mensaje + " en la posición " + posicion);
+        this.posicion = posicion;
+    }
+
+    public int getPosicion() {
+        return posicion;
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Escritor de las respuestas de una conexión persistente del servidor bloqueante. Los hilos de cálculo dejan
+ * cada respuesta en la cola de la conexión sin bloquearse, y un hilo propio de la conexión las escribe en el
+ * socket en el orden en que llegan; el búfer de salida se vacía cuando no quedan respuestas en la cola.
+ * Sirve tanto para las tramas binarias como para los objetos serializados. Un cliente que envía solicitudes sin leer sus respuestas solo detiene a su
+ * propio escritor; los hilos de cálculo siguen atendiendo a los demás clientes.
+ * <p>
+ * El lector de la conexión reserva un lugar con {@link #reservar()} antes de cada solicitud, y el lugar se
+ * libera cuando su respuesta se escribe. Con -Dcalculadora.conexion.pendientes solicitudes pendientes (256) el
+ * lector deja de leer y TCP frena al cliente, así que la cola de una conexión está acotada.
+ * <p>
+ * Cuando termina la lectura, {@link #cerrar()} espera a que se escriban las respuestas que faltan antes de que se
+ * cierre el socket.
+ */
+final class EscritorRespuestas implements Runnable {
+    static final int PENDIENTES = Math.max(1, Integer.getInteger("calculadora.conexion.pendientes", 256));
+    static final long ESPERA_CIERRE = TimeUnit.SECONDS.toMillis(10); // Máximo que se espera a las respuestas al cerrar.
+
+    /**
+     * Escritura de una respuesta en el flujo de la conexión.
+     */
+    interface Envio {
+        void enviar() throws IOException;
+    }
+
+    private static final Envio FIN = () -> { };
+
+    private final Socket conexion;
+    private final Flushable salida;
+    private final BlockingQueue<Envio> cola = new LinkedBlockingQueue<>(); // Acotada por los lugares reservados.
+    private final Semaphore lugares = new Semaphore(PENDIENTES);
+    private final Thread hilo;
+    private volatile boolean fallida; // Falló una escritura: las respuestas siguientes se descartan.
+
+    /**
+     * Crea el escritor de una conexión y lo pone a funcionar.
+     *
+     * @param conexion La conexión; se cierra si falla una escritura, para que el lector también termine.
+     * @param salida El flujo en el que escriben las respuestas, que solo usa el escritor.
+     * @param nombre El nombre del hilo del escritor.
+     */
+    EscritorRespuestas(Socket conexion, Flushable salida, String nombre) {
+        this.conexion = conexion;
+        this.salida = salida;
+        hilo = ArbolExpresion.crearHilo(this, nombre);
+        hilo.start();
+    }
+
+    /**
+     * Reserva el lugar de una respuesta. Si la conexión ya tiene el máximo de respuestas pendientes, espera a
+     * que se escriba alguna. Lo llama solo el lector de la conexión.
+     */
+    void reservar() throws IOException {
+        try {
+            lugares.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrumpido esperando lugar para una respuesta");
+        }
+    }
+
+    /**
+     * Encola una respuesta sin bloquear. Debe haberse reservado su lugar con {@link #reservar()}.
+     *
+     * @param envio La escritura de la respuesta.
+     */
+    void enviar(Envio envio) {
+        cola.add(envio);
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            Envio envio;
+            try {
+                envio = cola.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (envio == FIN) {
+                return;
+            }
+            if (!fallida) {
+                try {
+                    envio.enviar();
+                    if (cola.isEmpty()) {
+                        salida.flush();
+                    }
+                } catch (IOException e) {
+                    fallida = true;
+                    Metricas.erroresConexion.increment();
+                    Bitacora.escribir("No se pudo responder al cliente: " + e);
+                    cerrarConexion();
+                }
+            }
+            lugares.release();
+        }
+    }
+
+    /**
+     * Espera a que se escriban todas las respuestas reservadas, incluidas las que todavía se están evaluando,
+     * y detiene el escritor. Si no terminan en {@link #ESPERA_CIERRE} milisegundos (el cliente no lee), se
+     * cierra la conexión igual. Lo llama el lector de la conexión al terminar de leer.
+     */
+    void cerrar() {
+        try {
+            if (!lugares.tryAcquire(PENDIENTES, ESPERA_CIERRE, TimeUnit.MILLISECONDS)) {
+                Bitacora.escribir("Se cerró una conexión con respuestas sin enviar");
+                cerrarConexion(); // Desbloquea al escritor si está detenido en una escritura.
+            }
+            cola.add(FIN);
+            hilo.join(ESPERA_CIERRE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            hilo.interrupt();
+        }
+    }
+
+    private void cerrarConexion() {
+        try {
+            conexion.close();
+        } catch (IOException e) {
+            // La conexión ya está cerrada.
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Ejecuta programas compilados sobre una pila de doubles que se reutiliza entre evaluaciones.
+ * Una vez que la pila alcanza el tamaño necesario, evaluar no crea objetos.
+ * No es seguro usar una misma instancia desde varios hilos; cada hilo debe tener la suya.
+ */
+public final class Evaluador {
+    private static final double[] SIN_VARIABLES = {};
+    private double[] pila = new double[16]; // Pila de operandos reutilizable.
+    private double[] registros = new double[8]; // Subexpresiones compartidas ya calculadas.
+
+    /**
+     * Evalúa un programa compilado que no tiene variables.
+     *
+     * @param programa El programa a evaluar.
+     * @return El resultado de la expresión, idéntico al de {@link ArbolExpresion#evaluarArbol(Nodo)}.
+     * @throws IllegalArgumentException Si la expresión tiene variables.
+     */
+    public double evaluar(Programa programa) {
+        return evaluar(programa, SIN_VARIABLES);
+    }
+
+    /**
+     * Evalúa un programa compilado con valores para sus variables.
+     *
+     * @param programa El programa a evaluar.
+     * @param valores El valor de cada variable, en el orden de {@link Programa#getVariables()}.
+     * @return El resultado de la expresión.
+     * @throws IllegalArgumentException Si faltan valores para alguna variable.
+     */
+    public double evaluar(Programa programa, double[] valores) {
+        if (valores.length < programa.variables.length) {
+            throw new IllegalArgumentException("La variable '" + programa.variables[valores.length] + "' no tiene valor");
+        }
+        if (pila.length < programa.profundidad) {
+            pila = new double[programa.profundidad];
+        }
+        if (registros.length < programa.registros) {
+            registros = new double[programa.registros];
+        }
+        double[] p = pila;
+        double[] r = registros;
+        byte[] codigos = programa.codigos;
+        int[] operandos = programa.operandos;
+        double[] constantes = programa.constantes;
+        int tope = -1;
+
+        for (int i = 0; i < codigos.length; i++) {
+            byte codigo = codigos[i];
+            if (codigo == Programa.CARGAR) {
+                p[++tope] = constantes[operandos[i]];
+                continue;
+            }
+            if (codigo == Programa.VARIABLE) {
+                p[++tope] = valores[operandos[i]];
+                continue;
+            }
+            if (codigo == Programa.GUARDAR) {
+                r[operandos[i]] = p[tope];
+                continue;
+            }
+            if (codigo == Programa.RECUPERAR) {
+                p[++tope] = r[operandos[i]];
+                continue;
+            }
+            double derecho = p[tope--];
+            double izquierdo = p[tope];
+            // Realiza la operación correspondiente y deja el resultado en el tope de la pila.
+            switch (codigo) {
+                case Programa.SUMA:
+                    p[tope] = izquierdo + derecho;
+                    break;
+                case Programa.RESTA:
+                    p[tope] = izquierdo - derecho;
+                    break;
+                case Programa.MULTIPLICACION:
+                    p[tope] = izquierdo * derecho;
+                    break;
+                case Programa.DIVISION:
+                    p[tope] = izquierdo / derecho;
+                    break;
+                case Programa.MODULO:
+                    p[tope] = izquierdo % derecho;
+                    break;
+                case Programa.POTENCIA:
+                    p[tope] = Math.pow(izquierdo, derecho);
+                    break;
+                case Programa.Y:
+                    p[tope] = (izquierdo != 0 && derecho != 0) ? 1 : 0;
+                    break;
+                case Programa.O:
+                    p[tope] = (izquierdo != 0 || derecho != 0) ? 1 : 0;
+                    break;
+                case Programa.NO:
+                    p[tope] = (izquierdo == 0) ? 1 : 0;
+                    break;
+                case Programa.XOR:
+                    p[tope] = (izquierdo != derecho) ? 1 : 0;
+                    break;
+                default:
+                    p[tope] = 0;
+            }
+        }
+        return p[0];
+    }
+
+    /**
+     * Aplica un operador a dos valores, igual que una instrucción del programa.
+     *
+     * @param codigo El código de operación de {@link Programa}.
+     * @param izquierdo El operando izquierdo.
+     * @param derecho El operando derecho.
+     * @return El resultado de la operación.
+     */
+    static double operar(byte codigo, double izquierdo, double derecho) {
+        switch (codigo) {
+            case Programa.SUMA:
+                return izquierdo + derecho;
+            case Programa.RESTA:
+                return izquierdo - derecho;
+            case Programa.MULTIPLICACION:
+                return izquierdo * derecho;
+            case Programa.DIVISION:
+                return izquierdo / derecho;
+            case Programa.MODULO:
+                return izquierdo % derecho;
+            case Programa.POTENCIA:
+                return Math.pow(izquierdo, derecho);
+            case Programa.Y:
+                return (izquierdo != 0 && derecho != 0) ? 1 : 0;
+            case Programa.O:
+                return (izquierdo != 0 || derecho != 0) ? 1 : 0;
+            case Programa.NO:
+                return (izquierdo == 0) ? 1 : 0;
+            case Programa.XOR:
+                return (izquierdo != derecho) ? 1 : 0;
+            default:
+                return 0;
+        }
+    }
+}
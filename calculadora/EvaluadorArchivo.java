@@ -0,0 +1,191 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Evalúa un archivo de expresiones, una por línea, sin servidor ni red. Se inicia con
+ * {@code java ArbolExpresion --archivo entrada salida} y escribe en la salida una línea por cada línea de la
+ * entrada, en el mismo orden: el resultado, "Error: ..." si la expresión es inválida, o una línea vacía si la de
+ * entrada estaba vacía.
+ * <p>
+ * La entrada se mapea en memoria por tramos de -Dcalculadora.archivo.tramo bytes (4 MiB), cortados en un fin de
+ * línea, y cada tramo se analiza y evalúa en un grupo de -Dcalculadora.archivo.hilos hilos (uno por procesador)
+ * con el mismo motor que el servidor: la caché de programas compilados, el {@link Analizador} y los evaluadores
+ * de {@link ArbolExpresion#calcularTramo}. El hilo principal escribe los resultados de cada tramo en orden y nunca
+ * hay más de -Dcalculadora.archivo.ventana tramos en curso (dos por hilo), así la memoria usada no depende del
+ * tamaño del archivo. Al terminar informa cuántas expresiones por segundo se evaluaron.
+ */
+public class EvaluadorArchivo {
+    static final long TRAMO = Long.getLong("calculadora.archivo.tramo", 4 << 20);
+    static final int HILOS = Integer.getInteger("calculadora.archivo.hilos", Runtime.getRuntime().availableProcessors());
+    static final int VENTANA = Math.max(1, Integer.getInteger("calculadora.archivo.ventana", 2 * HILOS));
+
+    private long lineas;
+    private long errores;
+
+    /**
+     * @param args --archivo, el archivo de entrada y el archivo de salida.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 3) {
+            System.err.println("Uso: java ArbolExpresion --archivo entrada salida");
+            return;
+        }
+        long inicio = System.nanoTime();
+        EvaluadorArchivo evaluador = new EvaluadorArchivo();
+        evaluador.evaluar(Paths.get(args[1]), Paths.get(args[2]));
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        System.out.printf("Expresiones: %d, errores: %d, en %.3f s%n", evaluador.lineas, evaluador.errores, segundos);
+        System.out.printf("Rendimiento: %.0f expresiones/s%n", evaluador.lineas / Math.max(segundos, 1e-9));
+    }
+
+    /**
+     * Evalúa todas las líneas de un archivo y escribe sus resultados en otro.
+     *
+     * @param entrada El archivo con una expresión por línea.
+     * @param salida El archivo de resultados; se reemplaza si existe.
+     */
+    void evaluar(Path entrada, Path salida) throws IOException, InterruptedException {
+        ExecutorService hilos = Executors.newFixedThreadPool(HILOS);
+        ArrayDeque<Future<Resultado>> enCurso = new ArrayDeque<>(VENTANA);
+        try (FileChannel lectura = FileChannel.open(entrada, StandardOpenOption.READ);
+             FileChannel escritura = FileChannel.open(salida, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long tamano = lectura.size();
+            long posicion = 0;
+            while (posicion < tamano) {
+                MappedByteBuffer tramo = mapearTramo(lectura, posicion, tamano);
+                posicion += tramo.limit();
+                if (enCurso.size() == VENTANA) {
+                    escribir(enCurso.removeFirst(), escritura);
+                }
+                enCurso.addLast(hilos.submit(() -> evaluarTramo(tramo)));
+            }
+            while (!enCurso.isEmpty()) {
+                escribir(enCurso.removeFirst(), escritura);
+            }
+        } finally {
+            hilos.shutdownNow();
+        }
+    }
+
+    /**
+     * Mapea el tramo que empieza en una posición y termina en el último fin de línea de los siguientes
+     * {@link #TRAMO} bytes. Si en ese espacio no hay ningún fin de línea, el tramo se agranda hasta encontrar uno.
+     *
+     * @return El tramo, con su límite justo después del fin de línea, o en el fin del archivo.
+     */
+    static MappedByteBuffer mapearTramo(FileChannel lectura, long posicion, long tamano) throws IOException {
+        long largo = Math.max(1, TRAMO);
+        while (true) {
+            long fin = Math.min(tamano, posicion + Math.min(largo, Integer.MAX_VALUE));
+            MappedByteBuffer tramo = lectura.map(FileChannel.MapMode.READ_ONLY, posicion, fin - posicion);
+            if (fin == tamano) {
+                return tramo;
+            }
+            for (int i = tramo.limit() - 1; i >= 0; i--) {
+                if (tramo.get(i) == '\n') {
+                    tramo.limit(i + 1);
+                    return tramo;
+                }
+            }
+            if (largo >= Integer.MAX_VALUE) {
+                throw new IOException("Hay una línea de más de " + Integer.MAX_VALUE + " bytes en la posición " + posicion);
+            }
+            largo *= 2; // Una sola línea ocupa todo el tramo.
+        }
+    }
+
+    /**
+     * Separa las líneas de un tramo, las evalúa y da formato a sus resultados. Se ejecuta en un hilo del grupo.
+     */
+    static Resultado evaluarTramo(ByteBuffer tramo) {
+        int cantidad = 0;
+        for (int i = 0; i < tramo.limit(); i++) {
+            if (tramo.get(i) == '\n') {
+                cantidad++;
+            }
+        }
+        if (tramo.limit() > 0 && tramo.get(tramo.limit() - 1) != '\n') {
+            cantidad++; // La última línea del archivo no termina en fin de línea.
+        }
+
+        String[] expresiones = new String[cantidad];
+        byte[] linea = new byte[64];
+        int inicio = 0;
+        for (int n = 0; n < cantidad; n++) {
+            int fin = inicio;
+            while (fin < tramo.limit() && tramo.get(fin) != '\n') {
+                fin++;
+            }
+            int largo = fin - inicio;
+            if (largo > 0 && tramo.get(fin - 1) == '\r') {
+                largo--;
+            }
+            if (linea.length < largo) {
+                linea = new byte[Math.max(largo, 2 * linea.length)];
+            }
+            tramo.get(inicio, linea, 0, largo);
+            expresiones[n] = new String(linea, 0, largo, StandardCharsets.UTF_8);
+            inicio = fin + 1;
+        }
+
+        double[] valores = new double[cantidad];
+        String[] mensajes = new String[cantidad];
+        ArbolExpresion.calcularTramo(expresiones, valores, mensajes, 0, cantidad);
+
+        StringBuilder texto = new StringBuilder(cantidad * 12);
+        int errores = 0;
+        for (int n = 0; n < cantidad; n++) {
+            if (expresiones[n].isBlank()) {
+                texto.append('\n');
+            } else if (mensajes[n] != null) {
+                errores++;
+                texto.append("Error: ").append(mensajes[n]).append('\n');
+            } else {
+                texto.append(valores[n]).append('\n');
+            }
+        }
+        return new Resultado(texto.toString().getBytes(StandardCharsets.UTF_8), cantidad, errores);
+    }
+
+    private void escribir(Future<Resultado> pendiente, FileChannel escritura) throws IOException, InterruptedException {
+        Resultado resultado;
+        try {
+            resultado = pendiente.get();
+        } catch (ExecutionException e) {
+            throw new IOException("No se pudo evaluar un tramo del archivo", e.getCause());
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(resultado.bytes);
+        while (bytes.hasRemaining()) {
+            escritura.write(bytes);
+        }
+        lineas += resultado.lineas;
+        errores += resultado.errores;
+    }
+
+    /**
+     * Resultados de un tramo ya con formato, listos para escribir.
+     */
+    static final class Resultado {
+        final byte[] bytes;
+        final int lineas;
+        final int errores;
+
+        Resultado(byte[] bytes, int lineas, int errores) {
+            this.bytes = bytes;
+            this.lineas = lineas;
+            this.errores = errores;
+        }
+    }
+}
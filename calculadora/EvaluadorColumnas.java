@@ -0,0 +1,168 @@
+import java.util.Arrays;
+
+/**
+ * Evalúa un programa compilado sobre columnas de datos: cada variable recibe un arreglo de doubles y el
+ * resultado de cada fila se guarda en un arreglo de salida. En lugar de recorrer el programa una vez por fila,
+ * cada operación se aplica a un bloque completo de filas con un ciclo simple sobre arreglos primitivos, que el
+ * compilador JIT puede vectorizar. Los bloques son pequeños para que los resultados intermedios quepan en caché.
+ * Una instancia reutiliza sus columnas temporales y no debe compartirse entre hilos.
+ */
+public final class EvaluadorColumnas {
+    static final int BLOQUE = 1024; // Filas que se procesan por cada operación.
+
+    private double[][] temporales = new double[8][BLOQUE]; // Una columna de resultados por nivel de la pila.
+    private double[][] columna = new double[8][];           // Arreglo del que se lee cada nivel de la pila.
+    private int[] desde = new int[8];                        // Posición de la fila actual en ese arreglo.
+    private double[][] guardados = new double[0][];          // Una columna por registro del programa.
+
+    /**
+     * Evalúa un programa para cada fila de las columnas.
+     *
+     * @param programa El programa a evaluar.
+     * @param columnas Una columna por variable, en el orden de {@link Programa#getVariables()}.
+     * @param salida Arreglo donde se guarda el resultado de cada fila.
+     * @param filas Cantidad de filas a evaluar.
+     * @throws IllegalArgumentException Si falta una columna o alguna tiene menos filas que las pedidas.
+     */
+    public void evaluar(Programa programa, double[][] columnas, double[] salida, int filas) {
+        if (columnas.length < programa.variables.length) {
+            throw new IllegalArgumentException("La variable '" + programa.variables[columnas.length] + "' no tiene columna");
+        }
+        for (int j = 0; j < programa.variables.length; j++) {
+            if (columnas[j].length < filas) {
+                throw new IllegalArgumentException("La columna de '" + programa.variables[j] + "' tiene menos de " + filas + " filas");
+            }
+        }
+        if (salida.length < filas) {
+            throw new IllegalArgumentException("La salida tiene menos de " + filas + " filas");
+        }
+        if (temporales.length < programa.profundidad) {
+            int anterior = temporales.length;
+            temporales = Arrays.copyOf(temporales, programa.profundidad);
+            for (int t = anterior; t < temporales.length; t++) {
+                temporales[t] = new double[BLOQUE];
+            }
+            columna = new double[programa.profundidad][];
+            desde = new int[programa.profundidad];
+        }
+        if (guardados.length < programa.registros) {
+            int anterior = guardados.length;
+            guardados = Arrays.copyOf(guardados, programa.registros);
+            for (int t = anterior; t < guardados.length; t++) {
+                guardados[t] = new double[BLOQUE];
+            }
+        }
+
+        for (int inicio = 0; inicio < filas; inicio += BLOQUE) {
+            int n = Math.min(BLOQUE, filas - inicio);
+            evaluarBloque(programa, columnas, inicio, n);
+            System.arraycopy(columna[0], desde[0], salida, inicio, n);
+        }
+    }
+
+    /**
+     * Evalúa las filas [inicio, inicio + n) dejando el resultado en el nivel 0 de la pila.
+     * Las variables no se copian: el nivel de la pila apunta directamente a su columna.
+     */
+    private void evaluarBloque(Programa programa, double[][] columnas, int inicio, int n) {
+        byte[] codigos = programa.codigos;
+        int[] operandos = programa.operandos;
+        int tope = -1;
+        for (int i = 0; i < codigos.length; i++) {
+            byte codigo = codigos[i];
+            if (codigo == Programa.CARGAR) {
+                tope++;
+                Arrays.fill(temporales[tope], 0, n, programa.constantes[operandos[i]]);
+                columna[tope] = temporales[tope];
+                desde[tope] = 0;
+                continue;
+            }
+            if (codigo == Programa.VARIABLE) {
+                tope++;
+                columna[tope] = columnas[operandos[i]];
+                desde[tope] = inicio;
+                continue;
+            }
+            if (codigo == Programa.GUARDAR) {
+                System.arraycopy(columna[tope], desde[tope], guardados[operandos[i]], 0, n);
+                continue;
+            }
+            if (codigo == Programa.RECUPERAR) {
+                tope++;
+                columna[tope] = guardados[operandos[i]];
+                desde[tope] = 0;
+                continue;
+            }
+            tope--;
+            double[] a = columna[tope];
+            int da = desde[tope];
+            double[] b = columna[tope + 1];
+            int db = desde[tope + 1];
+            double[] r = temporales[tope];
+            aplicar(codigo, a, da, b, db, r, n);
+            columna[tope] = r;
+            desde[tope] = 0;
+        }
+    }
+
+    /**
+     * Aplica un operador elemento a elemento: r[i] = a[da + i] op b[db + i]. Cada caso es un ciclo
+     * independiente y sin llamadas para que el JIT pueda vectorizarlo. r puede ser el mismo arreglo que a.
+     */
+    private static void aplicar(byte codigo, double[] a, int da, double[] b, int db, double[] r, int n) {
+        switch (codigo) {
+            case Programa.SUMA:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[da + i] + b[db + i];
+                }
+                break;
+            case Programa.RESTA:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[da + i] - b[db + i];
+                }
+                break;
+            case Programa.MULTIPLICACION:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[da + i] * b[db + i];
+                }
+                break;
+            case Programa.DIVISION:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[da + i] / b[db + i];
+                }
+                break;
+            case Programa.MODULO:
+                for (int i = 0; i < n; i++) {
+                    r[i] = a[da + i] % b[db + i];
+                }
+                break;
+            case Programa.POTENCIA:
+                for (int i = 0; i < n; i++) {
+                    r[i] = Math.pow(a[da + i], b[db + i]);
+                }
+                break;
+            case Programa.Y:
+                for (int i = 0; i < n; i++) {
+                    r[i] = (a[da + i] != 0 & b[db + i] != 0) ? 1 : 0;
+                }
+                break;
+            case Programa.O:
+                for (int i = 0; i < n; i++) {
+                    r[i] = (a[da + i] != 0 | b[db + i] != 0) ? 1 : 0;
+                }
+                break;
+            case Programa.NO:
+                for (int i = 0; i < n; i++) {
+                    r[i] = (a[da + i] == 0) ? 1 : 0;
+                }
+                break;
+            case Programa.XOR:
+                for (int i = 0; i < n; i++) {
+                    r[i] = (a[da + i] != b[db + i]) ? 1 : 0;
+                }
+                break;
+            default:
+                Arrays.fill(r, 0, n, 0);
+        }
+    }
+}
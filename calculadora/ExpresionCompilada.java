@@ -0,0 +1,11 @@
+/**
+ * Código de una expresión convertido en una clase de la JVM. Lo implementan las clases que crea
+ * {@link GeneradorClases}.
+ */
+interface ExpresionCompilada {
+    /**
+     * @param valores El valor de cada variable, en el orden de {@link Programa#getVariables()}.
+     * @return El resultado de la expresión.
+     */
+    double evaluar(double[] valores);
+}
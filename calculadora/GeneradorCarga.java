@@ -0,0 +1,309 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Generador de carga sin interfaz gráfica: simula muchas calculadoras que envían expresiones al servidor a la vez
+ * y mide la latencia de cada solicitud desde que debía enviarse hasta que llega su respuesta. Se inicia con
+ * {@code java Cliente --carga} y se configura con propiedades del sistema:
+ * <ul>
+ * <li>calculadora.servidor: dirección del servidor (127.0.0.1 en este modo);</li>
+ * <li>calculadora.protocolo: persistente (por omisión) o legado, con registro y conexión de vuelta;</li>
+ * <li>calculadora.carga.clientes: cantidad de clientes simulados (10);</li>
+ * <li>calculadora.carga.tasa: solicitudes por segundo entre todos los clientes; con 0 (por omisión) cada cliente
+ * envía la siguiente solicitud en cuanto recibe la respuesta (ciclo cerrado);</li>
+ * <li>calculadora.carga.ventana: solicitudes en curso por cliente en ciclo cerrado (1);</li>
+ * <li>calculadora.carga.duracion y calculadora.carga.calentamiento: segundos medidos (10) y segundos previos que
+ * no se miden (2);</li>
+ * <li>calculadora.carga.espera: milisegundos que se espera una respuesta antes de darla por perdida (5000);</li>
+ * <li>calculadora.carga.archivo: archivo con una expresión por línea; si no se indica, se generan
+ * calculadora.carga.distintas expresiones al azar (1000).</li>
+ * </ul>
+ * Con una tasa fija (ciclo abierto) la latencia se mide desde el instante en que la solicitud debía enviarse según
+ * la tasa, no desde que se envió, para que un servidor lento no oculte las solicitudes que se atrasaron.
+ * <p>
+ * En el protocolo persistente cada cliente tiene su propia {@link ConexionPersistente} y las respuestas se asocian
+ * por su identificador. El protocolo original no identifica las respuestas, así que cada cliente abre su propio
+ * puerto de vuelta y tiene como máximo una solicitud en curso: la respuesta que llega es la de esa solicitud.
+ */
+public class GeneradorCarga {
+    private final String servidor = System.getProperty("calculadora.servidor", "127.0.0.1");
+    private final boolean persistente = !"legado".equals(System.getProperty("calculadora.protocolo"));
+    private final int clientes = Integer.getInteger("calculadora.carga.clientes", 10);
+    private final double tasa = Double.parseDouble(System.getProperty("calculadora.carga.tasa", "0"));
+    private final int ventana = Math.max(1, Integer.getInteger("calculadora.carga.ventana", 1));
+    private final long duracion = Long.getLong("calculadora.carga.duracion", 10);
+    private final long calentamiento = Long.getLong("calculadora.carga.calentamiento", 2);
+    private final long espera = Long.getLong("calculadora.carga.espera", 5000);
+    private final String[] expresiones;
+
+    private final Histograma latencias = new Histograma("latencia");
+    private final LongAdder enviadas = new LongAdder();     // Solicitudes medidas que se enviaron.
+    private final LongAdder respondidas = new LongAdder();  // Respuestas medidas, incluidos los errores.
+    private final LongAdder errores = new LongAdder();      // Respuestas medidas con un mensaje de error.
+    private final LongAdder ocupadas = new LongAdder();     // Respuestas medidas que el servidor rechazó por sobrecarga.
+    private long inicioMedicion;
+    private long finMedicion;
+    private volatile boolean activo = true;
+
+    GeneradorCarga(String[] expresiones) {
+        this.expresiones = expresiones;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String archivo = System.getProperty("calculadora.carga.archivo");
+        String[] expresiones;
+        if (archivo != null) {
+            expresiones = Files.readAllLines(Paths.get(archivo), StandardCharsets.UTF_8).stream()
+                    .map(String::trim).filter(linea -> !linea.isEmpty()).toArray(String[]::new);
+            if (expresiones.length == 0) {
+                throw new IllegalArgumentException("El archivo no tiene expresiones: " + archivo);
+            }
+        } else {
+            expresiones = generar(Integer.getInteger("calculadora.carga.distintas", 1000), new Random(1));
+        }
+        new GeneradorCarga(expresiones).ejecutar();
+    }
+
+    /**
+     * Genera expresiones aritméticas al azar, con números de hasta dos cifras y algunos paréntesis.
+     *
+     * @param cantidad La cantidad de expresiones.
+     * @param azar El generador de números al azar.
+     * @return Las expresiones en notación infija.
+     */
+    static String[] generar(int cantidad, Random azar) {
+        String[] generadas = new String[Math.max(1, cantidad)];
+        for (int i = 0; i < generadas.length; i++) {
+            generadas[i] = aleatoria(azar, 4);
+        }
+        return generadas;
+    }
+
+    private static String aleatoria(Random azar, int profundidad) {
+        if (profundidad == 0 || azar.nextInt(3) == 0) {
+            return Integer.toString(azar.nextInt(100));
+        }
+        String texto = aleatoria(azar, profundidad - 1) + "+-*/%".charAt(azar.nextInt(5)) + aleatoria(azar, profundidad - 1);
+        return azar.nextBoolean() ? "(" + texto + ")" : texto;
+    }
+
+    /**
+     * Conecta los clientes, envía solicitudes durante el calentamiento y la medición, y escribe el informe.
+     */
+    void ejecutar() throws IOException, InterruptedException {
+        List<ClienteSimulado> simulados = new ArrayList<>();
+        for (int i = 0; i < clientes; i++) {
+            simulados.add(new ClienteSimulado(i));
+        }
+        long inicio = System.nanoTime();
+        inicioMedicion = inicio + TimeUnit.SECONDS.toNanos(calentamiento);
+        finMedicion = inicioMedicion + TimeUnit.SECONDS.toNanos(duracion);
+        List<Thread> hilos = new ArrayList<>();
+        for (ClienteSimulado simulado : simulados) {
+            Thread hilo = new Thread(() -> simulado.enviar(inicio), "carga-" + simulado.indice);
+            hilo.setDaemon(true);
+            hilo.start();
+            hilos.add(hilo);
+        }
+        esperarHasta(finMedicion);
+        activo = false;
+        for (Thread hilo : hilos) {
+            hilo.join();
+        }
+        // Las respuestas de las últimas solicitudes del ciclo abierto pueden seguir en camino.
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(espera);
+        while (respondidas.sum() < enviadas.sum() && System.nanoTime() < limite) {
+            Thread.sleep(10);
+        }
+        for (ClienteSimulado simulado : simulados) {
+            simulado.cerrar();
+        }
+        informar();
+    }
+
+    private void informar() {
+        long total = enviadas.sum();
+        long recibidas = respondidas.sum();
+        System.out.printf("Clientes: %d, protocolo %s, %s%n", clientes, persistente ? "persistente" : "legado",
+                tasa > 0 ? String.format("ciclo abierto a %.1f solicitudes/s", tasa)
+                         : "ciclo cerrado, hasta " + (persistente ? ventana : 1) + " en curso por cliente");
+        System.out.printf("Medición: %d s tras %d s de calentamiento, %d expresiones distintas%n",
+                duracion, calentamiento, expresiones.length);
+        System.out.printf("Solicitudes: enviadas=%d, respondidas=%d, errores=%d, ocupadas=%d, sin respuesta=%d%n",
+                total, recibidas, errores.sum(), ocupadas.sum(), total - recibidas);
+        System.out.printf("Rendimiento: %.1f respuestas/s%n", (double) recibidas / Math.max(1, duracion));
+        System.out.printf("Latencia: p50=%.3f ms, p99=%.3f ms, p99.9=%.3f ms, máx=%.3f ms%n",
+                latencias.getP50Micros() / 1000, latencias.getP99Micros() / 1000,
+                latencias.getP999Micros() / 1000, latencias.getMaximoMicros() / 1000);
+    }
+
+    private boolean medida(long programada) {
+        return programada >= inicioMedicion && programada < finMedicion;
+    }
+
+    private void registrarRespuesta(long programada, String resultado) {
+        if (medida(programada)) {
+            latencias.registrarDesde(programada);
+            respondidas.increment();
+            if (resultado.startsWith("Error")) {
+                errores.increment();
+            } else if (resultado.startsWith("Ocupado")) {
+                ocupadas.increment();
+            }
+        }
+    }
+
+    private static void esperarHasta(long instante) {
+        long restante;
+        while ((restante = instante - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(restante);
+        }
+    }
+
+    /**
+     * Un cliente simulado: un hilo que envía solicitudes y su conexión persistente o su puerto de vuelta.
+     */
+    final class ClienteSimulado implements Runnable {
+        final int indice;
+        private final Random azar;
+        private ConexionPersistente conexion;
+        private ServerSocket receptor;
+        private final Semaphore enCurso = new Semaphore(ventana);
+        private final BlockingQueue<Llegada> llegadas = new LinkedBlockingQueue<>();
+
+        ClienteSimulado(int indice) throws IOException {
+            this.indice = indice;
+            this.azar = new Random(indice);
+            if (persistente) {
+                conexion = new ConexionPersistente(servidor, 9999);
+                return;
+            }
+            receptor = new ServerSocket(0, 64);
+            Thread hilo = new Thread(this, "receptor-" + indice);
+            hilo.setDaemon(true);
+            hilo.start();
+            enviarLegado(null); // Registro.
+        }
+
+        /**
+         * Envía solicitudes hasta que termina la medición.
+         *
+         * @param inicio El instante en que empieza el calentamiento.
+         */
+        void enviar(long inicio) {
+            // En ciclo abierto los clientes se reparten la tasa y se escalonan dentro del intervalo.
+            long intervalo = tasa > 0 ? (long) (1e9 * clientes / tasa) : 0;
+            long siguiente = inicio + intervalo * indice / clientes;
+            try {
+                while (activo) {
+                    long programada;
+                    if (intervalo > 0) {
+                        programada = siguiente;
+                        siguiente += intervalo;
+                        esperarHasta(programada);
+                        if (!activo) {
+                            return;
+                        }
+                    } else {
+                        if (persistente && !enCurso.tryAcquire(espera, TimeUnit.MILLISECONDS)) {
+                            return; // La conexión dejó de responder.
+                        }
+                        programada = System.nanoTime();
+                    }
+                    String expresion = expresiones[azar.nextInt(expresiones.length)];
+                    if (medida(programada)) {
+                        enviadas.increment();
+                    }
+                    if (persistente) {
+                        conexion.enviar(expresion, resultado -> {
+                            registrarRespuesta(programada, resultado);
+                            enCurso.release();
+                        });
+                    } else {
+                        long enviada = System.nanoTime();
+                        enviarLegado(expresion);
+                        esperarLlegada(programada, enviada);
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println("Cliente " + indice + " detenido: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void esperarLlegada(long programada, long enviada) throws InterruptedException {
+            long limite = enviada + TimeUnit.MILLISECONDS.toNanos(espera);
+            Llegada llegada;
+            do {
+                llegada = llegadas.poll(limite - System.nanoTime(), TimeUnit.NANOSECONDS);
+                // Una respuesta anterior al envío es de una solicitud que ya se dio por perdida.
+            } while (llegada != null && llegada.instante < enviada);
+            if (llegada != null) {
+                registrarRespuesta(programada, llegada.resultado);
+            }
+        }
+
+        private void enviarLegado(String expresion) throws IOException {
+            try (Socket socket = new Socket(servidor, 9999)) {
+                datos paquete = new datos();
+                paquete.setPort(receptor.getLocalPort());
+                paquete.setExpresion(expresion);
+                ObjectOutputStream salida = new ObjectOutputStream(socket.getOutputStream());
+                salida.writeObject(paquete);
+                salida.flush();
+            }
+        }
+
+        /**
+         * Hilo que recibe las respuestas del protocolo original en el puerto del cliente.
+         */
+        @Override
+        public void run() {
+            while (!receptor.isClosed()) {
+                try (Socket socket = receptor.accept()) {
+                    datos mensaje = (datos) new ObjectInputStream(socket.getInputStream()).readObject();
+                    llegadas.add(new Llegada(System.nanoTime(), mensaje.getExpresion()));
+                } catch (IOException | ClassNotFoundException e) {
+                    // El receptor se cerró al terminar, o el servidor cortó la conexión.
+                }
+            }
+        }
+
+        void cerrar() throws IOException {
+            if (persistente) {
+                conexion.cerrar();
+            } else {
+                receptor.close();
+            }
+        }
+    }
+
+    /**
+     * Respuesta recibida en el protocolo original.
+     */
+    static final class Llegada {
+        final long instante;
+        final String resultado;
+
+        Llegada(long instante, String resultado) {
+            this.instante = instante;
+            this.resultado = resultado;
+        }
+    }
+}
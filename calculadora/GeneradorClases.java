@@ -0,0 +1,383 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.Cleaner;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Genera clases ocultas (MethodHandles.Lookup.defineHiddenClass) para las expresiones que se evalúan muchas veces.
+ * El método de la clase generada calcula la expresión directamente, con las constantes en el propio bytecode y
+ * sin despacho por operador, así el compilador JIT puede optimizarla como cualquier otro método.
+ * <p>
+ * El bytecode sigue el programa postfijo instrucción por instrucción y usa exactamente las mismas operaciones
+ * que {@link Evaluador}: dadd, dsub, dmul, ddiv, drem (el % de Java) y Math.pow; los operadores lógicos llaman
+ * a los métodos estáticos de esta clase. Por eso el resultado coincide bit a bit con
+ * {@link ArbolExpresion#evaluarArbol(Nodo)}. El código no tiene saltos, por lo que no necesita StackMapTable.
+ * <p>
+ * Las clases se definen sin la opción STRONG: cuando el programa sale de la caché y nadie más lo usa, la clase
+ * puede descargarse. La cantidad de clases vivas está limitada por -Dcalculadora.generacion.maximo.
+ */
+public final class GeneradorClases {
+    // Usos a partir de los cuales se genera la clase de un programa. Con 0 o menos nunca se generan clases.
+    static int umbral = Integer.getInteger("calculadora.generacion.umbral", 1000);
+    static int maximo = Integer.getInteger("calculadora.generacion.maximo", 512); // Clases generadas vivas a la vez.
+    // Métodos más grandes que esto no los compila el JIT (-XX:-DontCompileHugeMethods), y el intérprete
+    // de la JVM sería más lento que Evaluador.
+    static final int CODIGO_MAXIMO = 8000;
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final Cleaner LIMPIEZA = Cleaner.create();
+    private static final AtomicInteger vivas = new AtomicInteger();
+    private static final AtomicInteger generadas = new AtomicInteger();
+    private static final AtomicIntegerFieldUpdater<Programa> USOS = AtomicIntegerFieldUpdater.newUpdater(Programa.class, "usos");
+    private static final double[] SIN_VARIABLES = {};
+
+    private GeneradorClases() {
+    }
+
+    /**
+     * Evalúa un programa sin variables por niveles (ver {@link #evaluar(Programa, double[], Evaluador)}).
+     *
+     * @param programa El programa a evaluar.
+     * @param evaluador El evaluador del hilo actual, para los programas que todavía se interpretan.
+     * @return El resultado de la expresión.
+     * @throws IllegalArgumentException Si la expresión tiene variables.
+     */
+    public static double evaluar(Programa programa, Evaluador evaluador) {
+        return evaluar(programa, SIN_VARIABLES, evaluador);
+    }
+
+    /**
+     * Evalúa un programa por niveles: se interpreta con el evaluador hasta que alcanza el umbral de usos, y desde
+     * entonces se ejecuta la clase generada para él. Los programas de una sola instrucción (una constante, como
+     * queda toda expresión sin variables después del {@link Optimizador}, o una variable sola) siempre se
+     * interpretan: una clase no los haría más rápidos.
+     *
+     * @param programa El programa a evaluar.
+     * @param valores El valor de cada variable, en el orden de {@link Programa#getVariables()}.
+     * @param evaluador El evaluador del hilo actual, para los programas que todavía se interpretan.
+     * @return El resultado de la expresión.
+     * @throws IllegalArgumentException Si faltan valores para alguna variable.
+     */
+    public static double evaluar(Programa programa, double[] valores, Evaluador evaluador) {
+        if (programa.codigos.length > 1 && valores.length >= programa.variables.length) {
+            ExpresionCompilada compilada = programa.compilada;
+            if (compilada != null) {
+                return compilada.evaluar(valores);
+            }
+            // El incremento es atómico: exactamente un hilo ve el umbral y genera la clase.
+            if (umbral > 0 && USOS.incrementAndGet(programa) == umbral && generar(programa)) {
+                return programa.compilada.evaluar(valores);
+            }
+        }
+        return evaluador.evaluar(programa, valores);
+    }
+
+    /**
+     * Genera y guarda en el programa su clase, si todavía no la tiene y no se superó el máximo de clases vivas.
+     * Si no se puede generar (el método quedaría demasiado grande o se alcanzó el máximo), el programa sigue
+     * interpretándose; en el segundo caso se vuelve a intentar después de otros tantos usos.
+     *
+     * @param programa El programa a compilar.
+     * @return true si el programa tiene su clase generada.
+     */
+    static boolean generar(Programa programa) {
+        if (programa.compilada != null) {
+            return true;
+        }
+        byte[] clase = escribirClase(programa);
+        if (clase == null) {
+            USOS.set(programa, Integer.MIN_VALUE); // Nunca vuelve a llegar al umbral.
+            return false;
+        }
+        if (vivas.incrementAndGet() > maximo) {
+            vivas.decrementAndGet();
+            USOS.set(programa, 0);
+            return false;
+        }
+        try {
+            MethodHandles.Lookup oculta = LOOKUP.defineHiddenClass(clase, true);
+            ExpresionCompilada compilada = (ExpresionCompilada) oculta
+                    .findConstructor(oculta.lookupClass(), MethodType.methodType(void.class)).invoke();
+            LIMPIEZA.register(compilada, vivas::decrementAndGet);
+            generadas.incrementAndGet();
+            programa.compilada = compilada;
+            return true;
+        } catch (Throwable e) {
+            vivas.decrementAndGet();
+            USOS.set(programa, Integer.MIN_VALUE);
+            Bitacora.escribir("No se pudo generar la clase de " + programa + ": " + e);
+            return false;
+        }
+    }
+
+    /**
+     * @return La cantidad de clases generadas que todavía pueden estar en uso.
+     */
+    public static int getVivas() {
+        return vivas.get();
+    }
+
+    /**
+     * @return La cantidad de clases generadas desde que inició el programa.
+     */
+    public static int getGeneradas() {
+        return generadas.get();
+    }
+
+    // Operadores lógicos con la misma semántica que ArbolExpresion.evaluarArbol. Los llama el código generado.
+
+    static double y(double izquierdo, double derecho) {
+        return (izquierdo != 0 && derecho != 0) ? 1 : 0;
+    }
+
+    static double o(double izquierdo, double derecho) {
+        return (izquierdo != 0 || derecho != 0) ? 1 : 0;
+    }
+
+    static double no(double izquierdo, double derecho) {
+        return (izquierdo == 0) ? 1 : 0;
+    }
+
+    static double xor(double izquierdo, double derecho) {
+        return (izquierdo != derecho) ? 1 : 0;
+    }
+
+    /**
+     * Escribe el archivo de clase de un programa: una clase final que implementa ExpresionCompilada con un
+     * constructor vacío y el método evaluar.
+     *
+     * @return Los bytes de la clase, o null si el método superaría {@link #CODIGO_MAXIMO} bytes.
+     */
+    static byte[] escribirClase(Programa programa) {
+        if (programa.variables.length > Short.MAX_VALUE || programa.registros > Short.MAX_VALUE - 2) {
+            return null;
+        }
+        Constantes tabla = new Constantes();
+        int esta = tabla.clase("ExpresionGenerada");
+        int objeto = tabla.clase("java/lang/Object");
+        int interfaz = tabla.clase("ExpresionCompilada");
+        int constructorObjeto = tabla.metodo(objeto, "<init>", "()V");
+        int generador = tabla.clase("GeneradorClases");
+        int[] llamadas = new int[Programa.XOR + 1];
+        llamadas[Programa.POTENCIA] = tabla.metodo(tabla.clase("java/lang/Math"), "pow", "(DD)D");
+        llamadas[Programa.Y] = tabla.metodo(generador, "y", "(DD)D");
+        llamadas[Programa.O] = tabla.metodo(generador, "o", "(DD)D");
+        llamadas[Programa.NO] = tabla.metodo(generador, "no", "(DD)D");
+        llamadas[Programa.XOR] = tabla.metodo(generador, "xor", "(DD)D");
+
+        ByteArrayOutputStream codigo = new ByteArrayOutputStream(programa.codigos.length * 4);
+        for (int i = 0; i < programa.codigos.length; i++) {
+            byte op = programa.codigos[i];
+            switch (op) {
+                case Programa.CARGAR: {
+                    double valor = programa.constantes[programa.operandos[i]];
+                    long bits = Double.doubleToRawLongBits(valor);
+                    if (bits == 0L) {
+                        codigo.write(0x0e); // dconst_0
+                    } else if (bits == Double.doubleToRawLongBits(1.0)) {
+                        codigo.write(0x0f); // dconst_1
+                    } else {
+                        int indice = tabla.doble(valor);
+                        codigo.write(0x14); // ldc2_w
+                        codigo.write(indice >> 8);
+                        codigo.write(indice);
+                    }
+                    break;
+                }
+                case Programa.VARIABLE: {
+                    int indice = programa.operandos[i];
+                    codigo.write(0x2b); // aload_1
+                    codigo.write(0x11); // sipush
+                    codigo.write(indice >> 8);
+                    codigo.write(indice);
+                    codigo.write(0x31); // daload
+                    break;
+                }
+                case Programa.GUARDAR:
+                    // Cada registro es una variable local double: la 0 es this y la 1 el arreglo de valores.
+                    codigo.write(0x5c); // dup2
+                    escribirLocal(codigo, 0x39, 2 + 2 * programa.operandos[i]); // dstore
+                    break;
+                case Programa.RECUPERAR:
+                    escribirLocal(codigo, 0x18, 2 + 2 * programa.operandos[i]); // dload
+                    break;
+                case Programa.SUMA:
+                    codigo.write(0x63); // dadd
+                    break;
+                case Programa.RESTA:
+                    codigo.write(0x67); // dsub
+                    break;
+                case Programa.MULTIPLICACION:
+                    codigo.write(0x6b); // dmul
+                    break;
+                case Programa.DIVISION:
+                    codigo.write(0x6f); // ddiv
+                    break;
+                case Programa.MODULO:
+                    codigo.write(0x73); // drem
+                    break;
+                case Programa.POTENCIA:
+                case Programa.Y:
+                case Programa.O:
+                case Programa.NO:
+                case Programa.XOR:
+                    codigo.write(0xb8); // invokestatic
+                    codigo.write(llamadas[op] >> 8);
+                    codigo.write(llamadas[op]);
+                    break;
+                default:
+                    // Igual que Evaluador: un operador desconocido deja 0 en lugar de sus dos operandos.
+                    codigo.write(0x5c); // pop2
+                    codigo.write(0x5c); // pop2
+                    codigo.write(0x0e); // dconst_0
+            }
+            if (codigo.size() > CODIGO_MAXIMO) {
+                return null;
+            }
+        }
+        codigo.write(0xaf); // dreturn
+
+        int nombreCodigo = tabla.utf8("Code");
+        int nombreInit = tabla.utf8("<init>");
+        int descriptorInit = tabla.utf8("()V");
+        int nombreEvaluar = tabla.utf8("evaluar");
+        int descriptorEvaluar = tabla.utf8("([D)D");
+        if (tabla.cantidad > 0xffff) {
+            return null;
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + codigo.size());
+            DataOutputStream salida = new DataOutputStream(bytes);
+            salida.writeInt(0xCAFEBABE);
+            salida.writeShort(0);  // Versión menor.
+            salida.writeShort(52); // Java 8: el código sin saltos no necesita StackMapTable.
+            salida.writeShort(tabla.cantidad);
+            tabla.bytes.writeTo(salida);
+            salida.writeShort(0x0011 | 0x0020); // ACC_PUBLIC | ACC_FINAL | ACC_SUPER
+            salida.writeShort(esta);
+            salida.writeShort(objeto);
+            salida.writeShort(1);
+            salida.writeShort(interfaz);
+            salida.writeShort(0); // Campos.
+            salida.writeShort(2); // Métodos.
+
+            // public <init>() { super(); }
+            byte[] init = {0x2a, (byte) 0xb7, (byte) (constructorObjeto >> 8), (byte) constructorObjeto, (byte) 0xb1};
+            escribirMetodo(salida, nombreInit, descriptorInit, nombreCodigo, 1, 1, init);
+            // public double evaluar(double[] valores)
+            int pila = Math.max(2, programa.profundidad * 2 + 2);
+            escribirMetodo(salida, nombreEvaluar, descriptorEvaluar, nombreCodigo, pila, 2 + 2 * programa.registros,
+                    codigo.toByteArray());
+
+            salida.writeShort(0); // Atributos de la clase.
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // No ocurre al escribir en memoria.
+        }
+    }
+
+    /**
+     * Escribe una instrucción que usa una variable local, con el prefijo wide si el índice no cabe en un byte.
+     */
+    private static void escribirLocal(ByteArrayOutputStream codigo, int instruccion, int indice) {
+        if (indice > 0xff) {
+            codigo.write(0xc4); // wide
+            codigo.write(instruccion);
+            codigo.write(indice >> 8);
+        } else {
+            codigo.write(instruccion);
+        }
+        codigo.write(indice);
+    }
+
+    private static void escribirMetodo(DataOutputStream salida, int nombre, int descriptor, int nombreCodigo,
+            int pila, int locales, byte[] codigo) throws IOException {
+        salida.writeShort(0x0001); // ACC_PUBLIC
+        salida.writeShort(nombre);
+        salida.writeShort(descriptor);
+        salida.writeShort(1);
+        salida.writeShort(nombreCodigo);
+        salida.writeInt(12 + codigo.length);
+        salida.writeShort(pila);
+        salida.writeShort(locales);
+        salida.writeInt(codigo.length);
+        salida.write(codigo);
+        salida.writeShort(0); // Tabla de excepciones.
+        salida.writeShort(0); // Atributos del código.
+    }
+
+    /**
+     * Tabla de constantes del archivo de clase. Cada entrada se agrega una sola vez.
+     */
+    private static final class Constantes {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream salida = new DataOutputStream(bytes);
+        private final Map<Object, Integer> indices = new HashMap<>();
+        int cantidad = 1; // El índice 0 no se usa.
+
+        int utf8(String texto) {
+            return agregar("U" + texto, 1, () -> {
+                salida.writeByte(1);
+                salida.writeUTF(texto);
+            });
+        }
+
+        int clase(String nombre) {
+            int texto = utf8(nombre);
+            return agregar("C" + nombre, 1, () -> {
+                salida.writeByte(7);
+                salida.writeShort(texto);
+            });
+        }
+
+        int metodo(int clase, String nombre, String descriptor) {
+            int n = utf8(nombre);
+            int d = utf8(descriptor);
+            int nombreTipo = agregar("N" + nombre + descriptor, 1, () -> {
+                salida.writeByte(12);
+                salida.writeShort(n);
+                salida.writeShort(d);
+            });
+            return agregar("M" + clase + "." + nombre + descriptor, 1, () -> {
+                salida.writeByte(10);
+                salida.writeShort(clase);
+                salida.writeShort(nombreTipo);
+            });
+        }
+
+        int doble(double valor) {
+            // Se usan los bits exactos para distinguir 0.0 de -0.0 y conservar la carga útil de NaN.
+            long bits = Double.doubleToRawLongBits(valor);
+            return agregar(bits, 2, () -> {
+                salida.writeByte(6);
+                salida.writeLong(bits);
+            });
+        }
+
+        private int agregar(Object clave, int casillas, Escritura escritura) {
+            Integer indice = indices.get(clave);
+            if (indice != null) {
+                return indice;
+            }
+            try {
+                escritura.escribir();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            indices.put(clave, cantidad);
+            cantidad += casillas; // Las constantes double ocupan dos índices.
+            return cantidad - casillas;
+        }
+    }
+
+    private interface Escritura {
+        void escribir() throws IOException;
+    }
+}
@@ -0,0 +1,154 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latencias con cubetas log-lineales, al estilo de HdrHistogram: cada potencia de 2 se divide en
+ * 32 cubetas iguales, así que cualquier valor se guarda con un error relativo menor al 3,2 %, desde 1 ns hasta
+ * cientos de años, en un arreglo fijo de 1888 contadores. Registrar un valor son unos pocos incrementos atómicos,
+ * sin candados ni objetos nuevos, por lo que puede llamarse desde cualquier hilo en el camino de cada solicitud.
+ * Los percentiles se calculan recorriendo las cubetas; con registros concurrentes son aproximados.
+ */
+public class Histograma implements HistogramaMBean {
+    private static final int BITS = 5;                         // 2^BITS cubetas por potencia de 2.
+    private static final int SUBCUBETAS = 1 << BITS;
+    private static final int CUBETAS = SUBCUBETAS + (63 - BITS) * SUBCUBETAS;
+
+    private final String nombre;
+    private final AtomicLongArray cubetas = new AtomicLongArray(CUBETAS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder suma = new LongAdder();
+    private final LongAccumulator maximo = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param nombre El nombre de la etapa que mide, para los resúmenes.
+     */
+    public Histograma(String nombre) {
+        this.nombre = nombre;
+    }
+
+    /**
+     * Registra una duración.
+     *
+     * @param nanos La duración en nanosegundos; los valores negativos se cuentan como 0.
+     */
+    public void registrar(long nanos) {
+        long valor = Math.max(0, nanos);
+        cubetas.getAndIncrement(cubeta(valor));
+        total.increment();
+        suma.add(valor);
+        maximo.accumulate(valor);
+    }
+
+    /**
+     * Registra el tiempo transcurrido desde un instante de System.nanoTime().
+     *
+     * @param inicio El instante en que empezó la etapa.
+     */
+    public void registrarDesde(long inicio) {
+        registrar(System.nanoTime() - inicio);
+    }
+
+    static int cubeta(long valor) {
+        if (valor < SUBCUBETAS) {
+            return (int) valor;
+        }
+        int exponente = 63 - Long.numberOfLeadingZeros(valor);
+        int mantisa = (int) (valor >>> (exponente - BITS)) & (SUBCUBETAS - 1);
+        return SUBCUBETAS + (exponente - BITS) * SUBCUBETAS + mantisa;
+    }
+
+    /**
+     * @return El mayor valor que cae en una cubeta.
+     */
+    static long limite(int cubeta) {
+        if (cubeta < SUBCUBETAS) {
+            return cubeta;
+        }
+        int k = cubeta - SUBCUBETAS;
+        int desplazamiento = k / SUBCUBETAS;
+        long mantisa = SUBCUBETAS + k % SUBCUBETAS;
+        return ((mantisa + 1) << desplazamiento) - 1;
+    }
+
+    /**
+     * Obtiene un percentil.
+     *
+     * @param percentil El percentil entre 0 y 100.
+     * @return El valor en nanosegundos por debajo del cual está ese porcentaje de los registros, o 0 si no hay.
+     */
+    public long percentil(double percentil) {
+        long cantidad = total.sum();
+        if (cantidad == 0) {
+            return 0;
+        }
+        long objetivo = Math.max(1, (long) Math.ceil(cantidad * percentil / 100));
+        long acumulado = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            acumulado += cubetas.get(i);
+            if (acumulado >= objetivo) {
+                return Math.min(limite(i), maximo.get());
+            }
+        }
+        return maximo.get();
+    }
+
+    /**
+     * Vacía el histograma.
+     */
+    public void reiniciar() {
+        for (int i = 0; i < CUBETAS; i++) {
+            cubetas.set(i, 0);
+        }
+        total.reset();
+        suma.reset();
+        maximo.reset();
+    }
+
+    public String getNombre() {
+        return nombre;
+    }
+
+    @Override
+    public long getCantidad() {
+        return total.sum();
+    }
+
+    @Override
+    public double getPromedioMicros() {
+        long cantidad = total.sum();
+        return cantidad == 0 ? 0 : suma.sum() / 1000.0 / cantidad;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return percentil(50) / 1000.0;
+    }
+
+    @Override
+    public double getP90Micros() {
+        return percentil(90) / 1000.0;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return percentil(99) / 1000.0;
+    }
+
+    @Override
+    public double getP999Micros() {
+        return percentil(99.9) / 1000.0;
+    }
+
+    @Override
+    public double getMaximoMicros() {
+        return maximo.get() / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-12s n=%d prom=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                nombre, getCantidad(), getPromedioMicros(), getP50Micros(), getP90Micros(), getP99Micros(),
+                getP999Micros(), getMaximoMicros());
+    }
+}
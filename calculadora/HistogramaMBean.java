@@ -0,0 +1,18 @@
+/**
+ * Atributos JMX de un {@link Histograma}: cantidad de registros y latencias en microsegundos.
+ */
+public interface HistogramaMBean {
+    long getCantidad();
+
+    double getPromedioMicros();
+
+    double getP50Micros();
+
+    double getP90Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaximoMicros();
+}
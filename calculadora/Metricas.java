@@ -0,0 +1,198 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Métricas del servidor: un {@link Histograma} de latencia por etapa de una solicitud y contadores de solicitudes,
+ * errores, rechazos por sobrecarga, conexiones y profundidad de la cola de cálculo. Se publican como MBeans en el servidor JMX de la
+ * plataforma ("calculadora:type=Metricas" y "calculadora:type=Latencia,etapa=..."), visibles con jconsole o
+ * VisualVM. Con -Dcalculadora.metricas.periodo=N (segundos) se escribe además un resumen en la bitácora cada N
+ * segundos.
+ * <p>
+ * Las etapas son:
+ * <ul>
+ * <li>aceptar: desde que accept() devuelve la conexión hasta que un hilo empieza a atenderla;</li>
+ * <li>deserializar: lectura del primer objeto serializado o decodificación de una trama binaria;</li>
+ * <li>analizar: análisis de una expresión que no estaba en la caché;</li>
+ * <li>construir: optimización del programa analizado ({@link Optimizador});</li>
+ * <li>evaluar: evaluación del programa compilado;</li>
+ * <li>responder: conexión con el cliente (protocolo original) y escritura de la respuesta.</li>
+ * </ul>
+ */
+public final class Metricas implements MetricasMBean {
+    static final Histograma ACEPTAR = new Histograma("aceptar");
+    static final Histograma DESERIALIZAR = new Histograma("deserializar");
+    static final Histograma ANALIZAR = new Histograma("analizar");
+    static final Histograma CONSTRUIR = new Histograma("construir");
+    static final Histograma EVALUAR = new Histograma("evaluar");
+    static final Histograma RESPONDER = new Histograma("responder");
+    static final Histograma[] ETAPAS = {ACEPTAR, DESERIALIZAR, ANALIZAR, CONSTRUIR, EVALUAR, RESPONDER};
+
+    static final LongAdder solicitudes = new LongAdder();        // Expresiones evaluadas, incluidas las de los lotes.
+    static final LongAdder errores = new LongAdder();            // Expresiones inválidas.
+    static final LongAdder erroresConexion = new LongAdder();    // Conexiones que terminaron con un error de E/S.
+    static final LongAdder conexionesAbiertas = new LongAdder();
+    static final LongAdder rechazadas = new LongAdder();          // Solicitudes respondidas como ocupadas (ver Admision).
+    static final LongAdder conexionesRechazadas = new LongAdder(); // Conexiones cerradas por exceder el máximo.
+
+    private static boolean iniciadas;
+    private static long solicitudesPrevias;
+
+    private Metricas() {
+    }
+
+    /**
+     * Registra los MBeans e inicia el resumen periódico. Las llamadas siguientes no hacen nada.
+     */
+    public static synchronized void iniciar() {
+        if (iniciadas) {
+            return;
+        }
+        iniciadas = true;
+        MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+        try {
+            servidor.registerMBean(new Metricas(), new ObjectName("calculadora:type=Metricas"));
+            for (Histograma etapa : ETAPAS) {
+                servidor.registerMBean(etapa, new ObjectName("calculadora:type=Latencia,etapa=" + etapa.getNombre()));
+            }
+        } catch (JMException e) {
+            Bitacora.escribir("No se pudieron registrar las métricas en JMX: " + e);
+        }
+        long periodo = Long.getLong("calculadora.metricas.periodo", 0);
+        if (periodo > 0) {
+            ScheduledExecutorService resumenes = Executors.newSingleThreadScheduledExecutor(tarea -> {
+                Thread hilo = new Thread(tarea, "resumen-metricas");
+                hilo.setDaemon(true);
+                return hilo;
+            });
+            solicitudesPrevias = solicitudes.sum();
+            resumenes.scheduleAtFixedRate(() -> Bitacora.escribir(resumenPeriodico(periodo)), periodo, periodo, TimeUnit.SECONDS);
+        }
+    }
+
+    private static String resumenPeriodico(long periodo) {
+        long total = solicitudes.sum();
+        double porSegundo = (double) Math.max(0, total - solicitudesPrevias) / periodo; // 0 tras reiniciar().
+        solicitudesPrevias = total;
+        return String.format("Solicitudes por segundo: %.1f%n", porSegundo) + texto();
+    }
+
+    /**
+     * @return Los contadores y los percentiles de cada etapa, una línea por etapa.
+     */
+    static String texto() {
+        StringBuilder texto = new StringBuilder();
+        texto.append("Solicitudes: ").append(solicitudes.sum())
+                .append(", errores: ").append(errores.sum())
+                .append(", errores de conexión: ").append(erroresConexion.sum())
+                .append(", rechazadas: ").append(rechazadas.sum())
+                .append(", conexiones abiertas: ").append(conexionesAbiertas.sum())
+                .append(", conexiones rechazadas: ").append(conexionesRechazadas.sum())
+                .append(", clientes registrados: ").append(ArbolExpresion.clientes.tamano())
+                .append(", cola de cálculo: ").append(profundidadCola())
+                .append(", mensajes descartados: ").append(Bitacora.getDescartados());
+        texto.append(System.lineSeparator()).append(ArbolExpresion.cache);
+        for (Histograma etapa : ETAPAS) {
+            texto.append(System.lineSeparator()).append(etapa);
+        }
+        return texto.toString();
+    }
+
+    private static int profundidadCola() {
+        if (ArbolExpresion.calculo instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) ArbolExpresion.calculo).getQueue().size();
+        }
+        return 0;
+    }
+
+    @Override
+    public long getSolicitudes() {
+        return solicitudes.sum();
+    }
+
+    @Override
+    public long getErrores() {
+        return errores.sum();
+    }
+
+    @Override
+    public long getErroresConexion() {
+        return erroresConexion.sum();
+    }
+
+    @Override
+    public long getRechazadas() {
+        return rechazadas.sum();
+    }
+
+    @Override
+    public long getConexionesRechazadas() {
+        return conexionesRechazadas.sum();
+    }
+
+    @Override
+    public long getConexionesAbiertas() {
+        return conexionesAbiertas.sum();
+    }
+
+    @Override
+    public int getClientesRegistrados() {
+        return ArbolExpresion.clientes.tamano();
+    }
+
+    @Override
+    public int getProfundidadCola() {
+        return profundidadCola();
+    }
+
+    @Override
+    public long getCacheAciertos() {
+        return ArbolExpresion.cache.getAciertos();
+    }
+
+    @Override
+    public long getCacheFallos() {
+        return ArbolExpresion.cache.getFallos();
+    }
+
+    @Override
+    public int getCacheTamano() {
+        return ArbolExpresion.cache.getTamano();
+    }
+
+    @Override
+    public int getClasesGeneradas() {
+        return GeneradorClases.getGeneradas();
+    }
+
+    @Override
+    public long getBitacoraDescartados() {
+        return Bitacora.getDescartados();
+    }
+
+    /**
+     * Vacía los histogramas y pone los contadores en 0, salvo las conexiones abiertas.
+     */
+    @Override
+    public void reiniciar() {
+        for (Histograma etapa : ETAPAS) {
+            etapa.reiniciar();
+        }
+        solicitudes.reset();
+        errores.reset();
+        erroresConexion.reset();
+        rechazadas.reset();
+        conexionesRechazadas.reset();
+    }
+
+    @Override
+    public String resumen() {
+        return texto();
+    }
+}
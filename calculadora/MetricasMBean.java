@@ -0,0 +1,34 @@
+/**
+ * Atributos y operaciones JMX de {@link Metricas}.
+ */
+public interface MetricasMBean {
+    long getSolicitudes();
+
+    long getErrores();
+
+    long getErroresConexion();
+
+    long getRechazadas();
+
+    long getConexionesRechazadas();
+
+    long getConexionesAbiertas();
+
+    int getClientesRegistrados();
+
+    int getProfundidadCola();
+
+    long getCacheAciertos();
+
+    long getCacheFallos();
+
+    int getCacheTamano();
+
+    int getClasesGeneradas();
+
+    long getBitacoraDescartados();
+
+    void reiniciar();
+
+    String resumen();
+}
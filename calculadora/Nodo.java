@@ -0,0 +1,37 @@
+/**
+ * Clase que permite la construcción y evaluación de expresiones matemáticas en notación postfija.
+ */
+class Nodo {
+    String valor;  //Tipo a String para manejar números con varios dígitos
+    Nodo izquierdo;
+    Nodo derecho;
+
+    public Nodo(String valor) {
+        this.valor = valor;
+        izquierdo = null;
+        derecho = null;
+    }
+
+    // Constructor adicional para operadores
+    public Nodo(char operador) {
+        this.valor = Character.toString(operador);
+        izquierdo = null;
+        derecho = null;
+    }
+
+    // Método para verificar si un nodo es un número
+    public boolean esNumero() {
+        try {
+            Double.parseDouble(valor);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    // Método para verificar si un nodo es una variable (un nombre que empieza con letra o guion bajo)
+    public boolean esVariable() {
+        char c = valor.charAt(0);
+        return (Character.isLetter(c) || c == '_') && !esNumero();
+    }
+}
@@ -0,0 +1,295 @@
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Optimiza un programa compilado antes de evaluarlo. El programa se convierte en un grafo en el que cada
+ * subexpresión distinta aparece una sola vez (consing de nodos), y en el camino:
+ * <ul>
+ * <li>se calculan de antemano las operaciones cuyos dos operandos son constantes, con las mismas operaciones
+ * que {@link Evaluador};</li>
+ * <li>se aplican solo las identidades que dan exactamente el mismo double en IEEE-754 para cualquier operando,
+ * incluidos NaN, infinitos y -0.0: x*1, 1*x, x/1, x-0, x+(-0.0), (-0.0)+x, x!1, x!0 = 1, x&amp;0 = 0,
+ * x|c = 1 con c distinto de 0, y x~y = x~0 (~ ignora su operando derecho). No se usan x+0 (falla con -0.0),
+ * x*0 ni x-x (fallan con NaN e infinitos).</li>
+ * </ul>
+ * Al volver a emitir el programa, cada subexpresión que se usa más de una vez se calcula la primera vez, se guarda
+ * en un registro (GUARDAR) y después solo se recupera (RECUPERAR). El resultado es idéntico al del programa original.
+ * La lista de variables no cambia, aunque alguna deje de usarse, para que una variable sin valor siga siendo un error.
+ */
+public final class Optimizador {
+    // Con -Dcalculadora.optimizar=false la caché guarda los programas tal como los produce el analizador.
+    static boolean activo = !"false".equals(System.getProperty("calculadora.optimizar"));
+    // Los identificadores de nodo se empaquetan de a dos en una clave long.
+    private static final int NODOS_MAXIMOS = 1 << 27;
+    private static final long MENOS_CERO = Double.doubleToRawLongBits(-0.0);
+
+    // Nodos del grafo en arreglos paralelos. En una hoja, tipo es CARGAR o VARIABLE.
+    private byte[] tipo;
+    private int[] izquierdo;
+    private int[] derecho;   // En una variable, su índice.
+    private double[] valor;  // En una constante, su valor.
+    private int cantidad;
+
+    private final HashMap<Long, Integer> constantes = new HashMap<>();  // Bits exactos del valor -> nodo.
+    private final HashMap<Long, Integer> operaciones = new HashMap<>(); // (código, izquierdo, derecho) -> nodo.
+    private final int[] porVariable;
+
+    private Optimizador(Programa programa) {
+        int capacidad = programa.codigos.length + 8;
+        tipo = new byte[capacidad];
+        izquierdo = new int[capacidad];
+        derecho = new int[capacidad];
+        valor = new double[capacidad];
+        porVariable = new int[programa.variables.length];
+        Arrays.fill(porVariable, -1);
+    }
+
+    /**
+     * Optimiza un programa.
+     *
+     * @param programa El programa tal como lo produjo el analizador.
+     * @return Un programa equivalente, o el mismo si es demasiado grande para optimizarlo.
+     */
+    public static Programa optimizar(Programa programa) {
+        if (programa.codigos.length >= NODOS_MAXIMOS / 2) {
+            return programa;
+        }
+        Optimizador optimizador = new Optimizador(programa);
+        int raiz = optimizador.construir(programa);
+        return optimizador.emitir(raiz, programa.variables);
+    }
+
+    /**
+     * Ejecuta el programa de forma simbólica: en lugar de valores, la pila guarda nodos del grafo.
+     *
+     * @return La raíz del grafo.
+     */
+    private int construir(Programa programa) {
+        int[] pila = new int[Math.max(1, programa.profundidad)];
+        int[] guardados = new int[programa.registros];
+        int tope = -1;
+        for (int i = 0; i < programa.codigos.length; i++) {
+            byte codigo = programa.codigos[i];
+            int operando = programa.operandos[i];
+            switch (codigo) {
+                case Programa.CARGAR:
+                    pila[++tope] = constante(programa.constantes[operando]);
+                    break;
+                case Programa.VARIABLE:
+                    if (porVariable[operando] < 0) {
+                        porVariable[operando] = nuevo(Programa.VARIABLE, 0, operando, 0);
+                    }
+                    pila[++tope] = porVariable[operando];
+                    break;
+                case Programa.GUARDAR:
+                    guardados[operando] = pila[tope];
+                    break;
+                case Programa.RECUPERAR:
+                    pila[++tope] = guardados[operando];
+                    break;
+                default:
+                    int der = pila[tope--];
+                    pila[tope] = operacion(codigo, pila[tope], der);
+            }
+        }
+        return pila[0];
+    }
+
+    /**
+     * Obtiene el nodo de una operación, simplificándola si es posible.
+     */
+    private int operacion(byte codigo, int izq, int der) {
+        if (codigo == Programa.NO) {
+            der = constante(0);
+        }
+        boolean constanteIzquierda = tipo[izq] == Programa.CARGAR;
+        boolean constanteDerecha = tipo[der] == Programa.CARGAR;
+        if (constanteIzquierda && constanteDerecha) {
+            return constante(Evaluador.operar(codigo, valor[izq], valor[der]));
+        }
+        double a = valor[izq];
+        double b = valor[der];
+        switch (codigo) {
+            case Programa.SUMA:
+                if (constanteDerecha && Double.doubleToRawLongBits(b) == MENOS_CERO) {
+                    return izq;
+                }
+                if (constanteIzquierda && Double.doubleToRawLongBits(a) == MENOS_CERO) {
+                    return der;
+                }
+                break;
+            case Programa.RESTA:
+                if (constanteDerecha && Double.doubleToRawLongBits(b) == 0L) {
+                    return izq;
+                }
+                break;
+            case Programa.MULTIPLICACION:
+                if (constanteDerecha && b == 1) {
+                    return izq;
+                }
+                if (constanteIzquierda && a == 1) {
+                    return der;
+                }
+                break;
+            case Programa.DIVISION:
+                if (constanteDerecha && b == 1) {
+                    return izq;
+                }
+                break;
+            case Programa.POTENCIA:
+                // Math.pow(x, 1) es x y Math.pow(x, ±0) es 1, incluso si x es NaN.
+                if (constanteDerecha && b == 1) {
+                    return izq;
+                }
+                if (constanteDerecha && b == 0) {
+                    return constante(1);
+                }
+                break;
+            case Programa.Y:
+                if ((constanteDerecha && b == 0) || (constanteIzquierda && a == 0)) {
+                    return constante(0);
+                }
+                break;
+            case Programa.O:
+                // NaN también es distinto de 0.
+                if ((constanteDerecha && b != 0) || (constanteIzquierda && a != 0)) {
+                    return constante(1);
+                }
+                break;
+            default:
+                break;
+        }
+        long clave = ((long) codigo << 56) | ((long) izq << 28) | der;
+        Integer nodo = operaciones.get(clave);
+        if (nodo == null) {
+            nodo = nuevo(codigo, izq, der, 0);
+            operaciones.put(clave, nodo);
+        }
+        return nodo;
+    }
+
+    private int constante(double numero) {
+        // Se comparan los bits exactos para no confundir 0.0 con -0.0.
+        Long bits = Double.doubleToRawLongBits(numero);
+        Integer nodo = constantes.get(bits);
+        if (nodo == null) {
+            nodo = nuevo(Programa.CARGAR, 0, 0, numero);
+            constantes.put(bits, nodo);
+        }
+        return nodo;
+    }
+
+    private int nuevo(byte codigo, int izq, int der, double numero) {
+        if (cantidad == tipo.length) {
+            int capacidad = cantidad * 2;
+            tipo = Arrays.copyOf(tipo, capacidad);
+            izquierdo = Arrays.copyOf(izquierdo, capacidad);
+            derecho = Arrays.copyOf(derecho, capacidad);
+            valor = Arrays.copyOf(valor, capacidad);
+        }
+        tipo[cantidad] = codigo;
+        izquierdo[cantidad] = izq;
+        derecho[cantidad] = der;
+        valor[cantidad] = numero;
+        return cantidad++;
+    }
+
+    private boolean esHoja(int nodo) {
+        return tipo[nodo] == Programa.CARGAR || tipo[nodo] == Programa.VARIABLE;
+    }
+
+    /**
+     * Escribe el grafo como un programa postfijo. Las hojas se vuelven a cargar en cada uso; las operaciones
+     * que se usan más de una vez se guardan en un registro la primera vez.
+     */
+    private Programa emitir(int raiz, String[] variables) {
+        // Cantidad de padres de cada nodo alcanzable desde la raíz.
+        int[] usos = new int[cantidad];
+        int[] pila = new int[16];
+        int tope = -1;
+        usos[raiz] = 1;
+        pila[++tope] = raiz;
+        while (tope >= 0) {
+            int nodo = pila[tope--];
+            if (esHoja(nodo)) {
+                continue;
+            }
+            if (tope + 2 >= pila.length) {
+                pila = Arrays.copyOf(pila, pila.length * 2);
+            }
+            if (usos[izquierdo[nodo]]++ == 0) {
+                pila[++tope] = izquierdo[nodo];
+            }
+            if (usos[derecho[nodo]]++ == 0) {
+                pila[++tope] = derecho[nodo];
+            }
+        }
+
+        int[] registro = new int[cantidad];
+        Arrays.fill(registro, -1);
+        int registros = 0;
+        HashMap<Long, Integer> indiceConstante = new HashMap<>();
+        double[] tabla = new double[8];
+        int k = 0;
+        byte[] codigos = new byte[cantidad + 8];
+        int[] operandos = new int[cantidad + 8];
+        int n = 0;
+        int altura = 0;
+        int profundidad = 1;
+
+        // Recorrido postfijo iterativo: un nodo se apila como n para visitarlo y como ~n para emitir su operador.
+        tope = -1;
+        pila[++tope] = raiz;
+        while (tope >= 0) {
+            if (n + 2 > codigos.length) {
+                codigos = Arrays.copyOf(codigos, codigos.length * 2);
+                operandos = Arrays.copyOf(operandos, operandos.length * 2);
+            }
+            int entrada = pila[tope--];
+            if (entrada < 0) {
+                int nodo = ~entrada;
+                codigos[n++] = tipo[nodo];
+                altura--;
+                if (usos[nodo] > 1) {
+                    registro[nodo] = registros++;
+                    operandos[n] = registro[nodo];
+                    codigos[n++] = Programa.GUARDAR;
+                }
+                continue;
+            }
+            int nodo = entrada;
+            if (tipo[nodo] == Programa.CARGAR) {
+                Long bits = Double.doubleToRawLongBits(valor[nodo]);
+                Integer indice = indiceConstante.get(bits);
+                if (indice == null) {
+                    if (k == tabla.length) {
+                        tabla = Arrays.copyOf(tabla, k * 2);
+                    }
+                    tabla[k] = valor[nodo];
+                    indice = k++;
+                    indiceConstante.put(bits, indice);
+                }
+                operandos[n] = indice;
+                codigos[n++] = Programa.CARGAR;
+            } else if (tipo[nodo] == Programa.VARIABLE) {
+                operandos[n] = derecho[nodo];
+                codigos[n++] = Programa.VARIABLE;
+            } else if (registro[nodo] >= 0) {
+                operandos[n] = registro[nodo];
+                codigos[n++] = Programa.RECUPERAR;
+            } else {
+                if (tope + 3 >= pila.length) {
+                    pila = Arrays.copyOf(pila, pila.length * 2);
+                }
+                pila[++tope] = ~nodo;
+                pila[++tope] = derecho[nodo];
+                pila[++tope] = izquierdo[nodo];
+                continue;
+            }
+            altura++;
+            profundidad = Math.max(profundidad, altura);
+        }
+        return new Programa(Arrays.copyOf(codigos, n), Arrays.copyOf(operandos, n), Arrays.copyOf(tabla, k),
+                variables, profundidad, registros);
+    }
+}
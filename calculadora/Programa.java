@@ -0,0 +1,232 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Forma compilada de un árbol de expresión: un programa plano en notación postfija.
+ * Los operandos se convierten una sola vez a double y se guardan en un arreglo de constantes,
+ * y los operadores se guardan como códigos de operación en un arreglo de bytes. Cada código tiene
+ * un operando entero en el arreglo paralelo de operandos: el índice de la constante o de la variable
+ * que apila, y 0 en los operadores.
+ * Un programa es inmutable y puede ejecutarse desde varios hilos con un {@link Evaluador} por hilo; solo cambian
+ * el contador de usos y la clase que genera {@link GeneradorClases} cuando el programa se usa muchas veces.
+ */
+public final class Programa {
+    // Códigos de operación del programa.
+    static final byte CARGAR = 0;          // Apila la constante indicada por el operando.
+    static final byte SUMA = 1;            // +
+    static final byte RESTA = 2;           // -
+    static final byte MULTIPLICACION = 3;  // *
+    static final byte DIVISION = 4;        // /
+    static final byte MODULO = 5;          // %
+    static final byte POTENCIA = 6;        // !
+    static final byte Y = 7;               // &
+    static final byte O = 8;               // |
+    static final byte NO = 9;              // ~
+    static final byte XOR = 10;            // ^
+    static final byte VARIABLE = 11;       // Apila el valor de la variable indicada por el operando.
+    static final byte GUARDAR = 12;        // Copia el tope de la pila en el registro indicado por el operando, sin quitarlo.
+    static final byte RECUPERAR = 13;      // Apila el valor del registro indicado por el operando.
+
+    final byte[] codigos;       // Secuencia de operaciones en orden postfijo.
+    final int[] operandos;      // Operando de cada código: índice en constantes o en variables.
+    final double[] constantes;  // Operandos numéricos ya convertidos.
+    final String[] variables;   // Nombres de las variables, en el orden en que aparecen por primera vez.
+    final int profundidad;      // Tamaño máximo que alcanza la pila al ejecutar el programa.
+    final int registros;        // Cantidad de registros que usan GUARDAR y RECUPERAR (ver Optimizador).
+    volatile int usos;                       // Evaluaciones por niveles, hasta que se genera la clase (ver GeneradorClases.USOS).
+    volatile ExpresionCompilada compilada;   // Clase generada para el programa, o null mientras se interpreta.
+
+    Programa(byte[] codigos, int[] operandos, double[] constantes, String[] variables, int profundidad) {
+        this(codigos, operandos, constantes, variables, profundidad, 0);
+    }
+
+    Programa(byte[] codigos, int[] operandos, double[] constantes, String[] variables, int profundidad, int registros) {
+        this.codigos = codigos;
+        this.operandos = operandos;
+        this.constantes = constantes;
+        this.variables = variables;
+        this.profundidad = profundidad;
+        this.registros = registros;
+    }
+
+    /**
+     * @return Los nombres de las variables de la expresión. Los valores que recibe el evaluador van en este orden.
+     */
+    public String[] getVariables() {
+        return variables.clone();
+    }
+
+    /**
+     * Busca la posición de una variable.
+     *
+     * @param nombre El nombre de la variable.
+     * @return Su índice en {@link #getVariables()}, o -1 si la expresión no la usa.
+     */
+    public int indiceVariable(String nombre) {
+        for (int i = 0; i < variables.length; i++) {
+            if (variables[i].equals(nombre)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compila un árbol de expresión a un programa plano.
+     * El recorrido es iterativo, por lo que no depende de la profundidad del árbol.
+     *
+     * @param raiz La raíz del árbol de expresión.
+     * @return El programa equivalente a evaluar el árbol con {@link ArbolExpresion#evaluarArbol(Nodo)}.
+     */
+    public static Programa compilar(Nodo raiz) {
+        // Se obtiene el recorrido postfijo invirtiendo un recorrido (nodo, derecho, izquierdo).
+        ArrayList<Nodo> pendientes = new ArrayList<>();
+        ArrayList<Nodo> recorrido = new ArrayList<>();
+        pendientes.add(raiz);
+        while (!pendientes.isEmpty()) {
+            Nodo nodo = pendientes.remove(pendientes.size() - 1);
+            recorrido.add(nodo);
+            if (nodo != null && !nodo.esNumero() && !nodo.esVariable() && codigo(nodo.valor.charAt(0)) >= 0) {
+                pendientes.add(nodo.izquierdo);
+                pendientes.add(nodo.derecho);
+            }
+        }
+
+        byte[] codigos = new byte[recorrido.size()];
+        int[] operandos = new int[recorrido.size()];
+        double[] constantes = new double[recorrido.size()];
+        ArrayList<String> variables = new ArrayList<>();
+        int n = 0;
+        int k = 0;
+        int altura = 0;
+        int profundidad = 1;
+        for (int i = recorrido.size() - 1; i >= 0; i--) {
+            Nodo nodo = recorrido.get(i);
+            if (nodo == null) {
+                // Un hijo ausente se evalúa como 0.
+                operandos[n] = k;
+                codigos[n++] = CARGAR;
+                constantes[k++] = 0;
+                altura++;
+            } else if (nodo.esNumero()) {
+                operandos[n] = k;
+                codigos[n++] = CARGAR;
+                constantes[k++] = Double.parseDouble(nodo.valor);
+                altura++;
+            } else if (nodo.esVariable()) {
+                int indice = variables.indexOf(nodo.valor);
+                if (indice < 0) {
+                    indice = variables.size();
+                    variables.add(nodo.valor);
+                }
+                operandos[n] = indice;
+                codigos[n++] = VARIABLE;
+                altura++;
+            } else {
+                byte codigo = codigo(nodo.valor.charAt(0));
+                if (codigo < 0) {
+                    // Un operador desconocido se evalúa como 0 sin importar sus hijos.
+                    operandos[n] = k;
+                    codigos[n++] = CARGAR;
+                    constantes[k++] = 0;
+                    altura++;
+                } else {
+                    codigos[n++] = codigo;
+                    altura--;
+                }
+            }
+            profundidad = Math.max(profundidad, altura);
+        }
+        return new Programa(codigos, operandos, Arrays.copyOf(constantes, k), variables.toArray(new String[0]), profundidad);
+    }
+
+    /**
+     * Reconstruye el árbol de expresión equivalente al programa.
+     * Los operandos se guardan con el texto de su valor double, que se convierte de vuelta sin pérdida.
+     * Una subexpresión compartida mediante registros queda como un mismo Nodo con varios padres.
+     *
+     * @return La raíz del árbol de expresión.
+     */
+    public Nodo aArbol() {
+        Nodo[] pila = new Nodo[profundidad];
+        Nodo[] guardados = new Nodo[registros];
+        int tope = -1;
+        for (int i = 0; i < codigos.length; i++) {
+            byte codigo = codigos[i];
+            if (codigo == CARGAR) {
+                pila[++tope] = new Nodo(Double.toString(constantes[operandos[i]]));
+            } else if (codigo == VARIABLE) {
+                pila[++tope] = new Nodo(variables[operandos[i]]);
+            } else if (codigo == GUARDAR) {
+                guardados[operandos[i]] = pila[tope];
+            } else if (codigo == RECUPERAR) {
+                pila[++tope] = guardados[operandos[i]];
+            } else {
+                Nodo nodo = new Nodo(operador(codigo));
+                nodo.derecho = pila[tope--];
+                nodo.izquierdo = pila[tope];
+                pila[tope] = nodo;
+            }
+        }
+        return pila[0];
+    }
+
+    /**
+     * Obtiene el código de operación de un operador.
+     *
+     * @param operador El operador de la expresión.
+     * @return El código de operación, o -1 si no es un operador conocido.
+     */
+    static byte codigo(char operador) {
+        switch (operador) {
+            case '+': return SUMA;
+            case '-': return RESTA;
+            case '*': return MULTIPLICACION;
+            case '/': return DIVISION;
+            case '%': return MODULO;
+            case '!': return POTENCIA;
+            case '&': return Y;
+            case '|': return O;
+            case '~': return NO;
+            case '^': return XOR;
+            default: return -1;
+        }
+    }
+
+    /**
+     * Obtiene el operador que corresponde a un código de operación.
+     *
+     * @param codigo El código de operación.
+     * @return El carácter del operador.
+     */
+    static char operador(byte codigo) {
+        return "?+-*/%!&|~^".charAt(codigo);
+    }
+
+    /**
+     * Devuelve el programa en notación postfija, con el mismo formato que {@link ArbolExpresion#infijaAPostfija(String)}.
+     * Los registros se muestran como "&gt;$n" (guardar) y "$n" (recuperar).
+     */
+    @Override
+    public String toString() {
+        StringBuilder texto = new StringBuilder();
+        for (int i = 0; i < codigos.length; i++) {
+            if (texto.length() > 0) {
+                texto.append(' ');
+            }
+            byte codigo = codigos[i];
+            if (codigo == CARGAR) {
+                texto.append(constantes[operandos[i]]);
+            } else if (codigo == VARIABLE) {
+                texto.append(variables[operandos[i]]);
+            } else if (codigo == GUARDAR) {
+                texto.append(">$").append(operandos[i]);
+            } else if (codigo == RECUPERAR) {
+                texto.append('$').append(operandos[i]);
+            } else {
+                texto.append(operador(codigo));
+            }
+        }
+        return texto.toString();
+    }
+}
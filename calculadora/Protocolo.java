@@ -0,0 +1,413 @@
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Formato binario de las tramas que intercambian el cliente y el servidor en el protocolo persistente.
+ * Cada trama tiene la forma:
+ * <pre>
+ *   int  largo    bytes que siguen a este campo
+ *   byte version  VERSION
+ *   byte tipo     SOLICITUD, RESULTADO, ERROR, LOTE, RESULTADO_LOTE u OCUPADO
+ *   long id       identificador de la solicitud
+ *   ...           SOLICITUD, ERROR y OCUPADO: texto en UTF-8; RESULTADO: double IEEE-754 de 8 bytes
+ * </pre>
+ * Un LOTE lleva un int con la cantidad de expresiones y, por cada una, un int con su largo y sus bytes UTF-8.
+ * Un RESULTADO_LOTE lleva la cantidad y, en el mismo orden, un byte de estado por elemento seguido del double
+ * (estado 0) o del largo y el mensaje de error en UTF-8 (estado 1).
+ * Las tramas de lote pueden ocupar hasta {@link #MAXIMO} bytes y {@link #MAXIMO_LOTE} elementos; las demás, hasta
+ * {@link #MAXIMO_SIMPLE}. Ambos límites se verifican antes de reservar memoria para la trama.
+ * Todos los enteros van en orden big-endian. Los métodos escriben y leen de ByteBuffer que el llamador reutiliza.
+ */
+public final class Protocolo {
+    static final byte VERSION = 1;
+
+    // Tipos de trama.
+    static final byte SOLICITUD = 1;
+    static final byte RESULTADO = 2;
+    static final byte ERROR = 3;
+    static final byte LOTE = 4;
+    static final byte RESULTADO_LOTE = 5;
+    static final byte OCUPADO = 6; // El servidor rechazó la solicitud sin evaluarla; puede reintentarse más tarde.
+
+    static final int ENCABEZADO = 4 + 1 + 1 + 8; // Largo, versión, tipo e id.
+    static final int MAXIMO = 16 << 20;          // Largo máximo aceptado para una trama de lote.
+    static final int MAXIMO_SIMPLE = 1 << 20;    // Largo máximo de las demás tramas, que llevan un solo texto o valor.
+    static final int MAXIMO_LOTE = 65536;        // Cantidad máxima de expresiones en un lote.
+    static final int RETENIDO = 64 << 10;        // Capacidad que un búfer de conexión conserva después de una trama.
+
+    private Protocolo() {
+    }
+
+    /**
+     * Escribe una solicitud con la expresión a evaluar.
+     *
+     * @param destino El búfer donde se escribe; debe tener espacio suficiente (ver {@link #largoTexto(CharSequence)}).
+     * @param id El identificador de la solicitud.
+     * @param expresion La expresión en notación infija.
+     */
+    static void codificarSolicitud(ByteBuffer destino, long id, CharSequence expresion) {
+        codificarTexto(destino, SOLICITUD, id, expresion);
+    }
+
+    /**
+     * Escribe el resultado de una solicitud.
+     *
+     * @param destino El búfer donde se escribe.
+     * @param id El identificador de la solicitud respondida.
+     * @param valor El resultado de la expresión.
+     */
+    static void codificarResultado(ByteBuffer destino, long id, double valor) {
+        destino.putInt(ENCABEZADO - 4 + 8);
+        destino.put(VERSION);
+        destino.put(RESULTADO);
+        destino.putLong(id);
+        destino.putDouble(valor);
+    }
+
+    /**
+     * Escribe el mensaje de error de una solicitud.
+     *
+     * @param destino El búfer donde se escribe.
+     * @param id El identificador de la solicitud respondida.
+     * @param mensaje La descripción del error.
+     */
+    static void codificarError(ByteBuffer destino, long id, CharSequence mensaje) {
+        codificarTexto(destino, ERROR, id, mensaje);
+    }
+
+    /**
+     * Escribe el rechazo de una solicitud que el servidor no evaluó por estar sobrecargado.
+     *
+     * @param destino El búfer donde se escribe.
+     * @param id El identificador de la solicitud rechazada.
+     * @param motivo La causa del rechazo.
+     */
+    static void codificarOcupado(ByteBuffer destino, long id, CharSequence motivo) {
+        codificarTexto(destino, OCUPADO, id, motivo);
+    }
+
+    /**
+     * Escribe una solicitud con varias expresiones que se responden juntas.
+     *
+     * @param destino El búfer donde se escribe; debe tener espacio suficiente (ver {@link #largoLote(CharSequence[])}).
+     * @param id El identificador de la solicitud.
+     * @param expresiones Las expresiones en notación infija.
+     */
+    static void codificarLote(ByteBuffer destino, long id, CharSequence[] expresiones) {
+        destino.putInt(largoLote(expresiones) - 4);
+        destino.put(VERSION);
+        destino.put(LOTE);
+        destino.putLong(id);
+        destino.putInt(expresiones.length);
+        for (CharSequence expresion : expresiones) {
+            destino.putInt(largoUtf8(expresion));
+            escribirUtf8(destino, expresion);
+        }
+    }
+
+    /**
+     * Escribe los resultados de un lote. Para cada elemento se envía su valor o, si tiene error, su mensaje.
+     *
+     * @param destino El búfer donde se escribe; debe tener espacio suficiente (ver {@link #largoResultadoLote(String[])}).
+     * @param id El identificador de la solicitud respondida.
+     * @param valores Los resultados, en el orden de las expresiones.
+     * @param errores Los mensajes de error, o null en los elementos que se evaluaron bien.
+     */
+    static void codificarResultadoLote(ByteBuffer destino, long id, double[] valores, String[] errores) {
+        destino.putInt(largoResultadoLote(errores) - 4);
+        destino.put(VERSION);
+        destino.put(RESULTADO_LOTE);
+        destino.putLong(id);
+        destino.putInt(valores.length);
+        for (int i = 0; i < valores.length; i++) {
+            if (errores[i] == null) {
+                destino.put((byte) 0);
+                destino.putDouble(valores[i]);
+            } else {
+                destino.put((byte) 1);
+                destino.putInt(largoUtf8(errores[i]));
+                escribirUtf8(destino, errores[i]);
+            }
+        }
+    }
+
+    /**
+     * Calcula el tamaño de una trama LOTE.
+     *
+     * @param expresiones Las expresiones del lote.
+     * @return La cantidad de bytes de la trama completa.
+     */
+    static int largoLote(CharSequence[] expresiones) {
+        int largo = ENCABEZADO + 4;
+        for (CharSequence expresion : expresiones) {
+            largo += 4 + largoUtf8(expresion);
+        }
+        return largo;
+    }
+
+    /**
+     * Calcula el tamaño de una trama RESULTADO_LOTE.
+     *
+     * @param errores Los mensajes de error, o null en los elementos que se evaluaron bien.
+     * @return La cantidad de bytes de la trama completa.
+     */
+    static int largoResultadoLote(String[] errores) {
+        int largo = ENCABEZADO + 4;
+        for (String error : errores) {
+            largo += 1 + (error == null ? 8 : 4 + largoUtf8(error));
+        }
+        return largo;
+    }
+
+    private static void codificarTexto(ByteBuffer destino, byte tipo, long id, CharSequence texto) {
+        int largo = largoUtf8(texto);
+        destino.putInt(ENCABEZADO - 4 + largo);
+        destino.put(VERSION);
+        destino.put(tipo);
+        destino.putLong(id);
+        escribirUtf8(destino, texto);
+    }
+
+    /**
+     * Calcula el tamaño de una trama que lleva un texto.
+     *
+     * @param texto El texto de la trama.
+     * @return La cantidad de bytes de la trama completa.
+     */
+    static int largoTexto(CharSequence texto) {
+        return ENCABEZADO + largoUtf8(texto);
+    }
+
+    /**
+     * Indica si el búfer contiene una trama completa a partir de su posición, sin consumirla.
+     *
+     * @param origen El búfer con los bytes recibidos.
+     * @return El largo total de la trama si está completa, o -1 si faltan bytes.
+     * @throws ProtocolException Si el largo declarado no es válido.
+     */
+    static int tramaCompleta(ByteBuffer origen) throws ProtocolException {
+        if (origen.remaining() < 4) {
+            return -1;
+        }
+        int largo = validarLargo(origen.getInt(origen.position()));
+        if (origen.remaining() >= 6) {
+            validarTipo(largo, origen.get(origen.position() + 5));
+        }
+        return origen.remaining() >= largo ? largo : -1;
+    }
+
+    /**
+     * Lee una trama completa del búfer a partir de su posición.
+     *
+     * @param origen El búfer con la trama.
+     * @param destino La trama donde se guardan los campos leídos.
+     * @throws ProtocolException Si la trama no es válida.
+     */
+    static void decodificar(ByteBuffer origen, Trama destino) throws ProtocolException {
+        int fin = origen.position() + validarLargo(origen.getInt());
+        byte version = origen.get();
+        if (version != VERSION) {
+            throw new ProtocolException("Versión de protocolo no soportada: " + version);
+        }
+        destino.tipo = origen.get();
+        validarTipo(fin - origen.position() + 6, destino.tipo);
+        destino.id = origen.getLong();
+        destino.texto = null;
+        destino.expresiones = null;
+        destino.valores = null;
+        destino.errores = null;
+        try {
+            leerContenido(origen, fin, destino);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            // Un campo que se sale de los bytes recibidos no debe llegar como excepción no verificada a quien lee.
+            throw new ProtocolException("Trama truncada");
+        }
+        if (origen.position() > fin) {
+            throw new ProtocolException("El contenido excede el largo de la trama");
+        }
+        origen.position(fin);
+    }
+
+    private static void leerContenido(ByteBuffer origen, int fin, Trama destino) throws ProtocolException {
+        switch (destino.tipo) {
+            case RESULTADO:
+                destino.valor = origen.getDouble();
+                break;
+            case SOLICITUD:
+            case ERROR:
+            case OCUPADO:
+                destino.texto = destino.leerUtf8(origen, fin);
+                break;
+            case LOTE:
+                destino.expresiones = new String[leerCantidadLote(origen, fin, 4)];
+                for (int i = 0; i < destino.expresiones.length; i++) {
+                    int largo = leerCantidad(origen, fin, 1);
+                    destino.expresiones[i] = destino.leerUtf8(origen, origen.position() + largo);
+                }
+                break;
+            case RESULTADO_LOTE:
+                int cantidad = leerCantidadLote(origen, fin, 5);
+                destino.valores = new double[cantidad];
+                destino.errores = new String[cantidad];
+                for (int i = 0; i < cantidad; i++) {
+                    if (origen.get() == 0) {
+                        destino.valores[i] = origen.getDouble();
+                    } else {
+                        int largo = leerCantidad(origen, fin, 1);
+                        destino.errores[i] = destino.leerUtf8(origen, origen.position() + largo);
+                    }
+                }
+                break;
+            default:
+                throw new ProtocolException("Tipo de trama desconocido: " + destino.tipo);
+        }
+    }
+
+    /**
+     * Lee una cantidad o un largo y verifica que no exceda los bytes que quedan en la trama.
+     *
+     * @param origen El búfer con la trama.
+     * @param fin La posición donde termina la trama.
+     * @param minimo Bytes que ocupa como mínimo cada unidad contada.
+     * @return La cantidad leída.
+     * @throws ProtocolException Si la cantidad es negativa o no cabe en la trama.
+     */
+    private static int leerCantidad(ByteBuffer origen, int fin, int minimo) throws ProtocolException {
+        if (fin - origen.position() < 4) {
+            throw new ProtocolException("Trama truncada");
+        }
+        int cantidad = origen.getInt();
+        if (cantidad < 0 || (long) cantidad * minimo > fin - origen.position()) {
+            throw new ProtocolException("Cantidad inválida en la trama: " + cantidad);
+        }
+        return cantidad;
+    }
+
+    /**
+     * Lee la cantidad de elementos de un lote y verifica que no supere {@link #MAXIMO_LOTE}, antes de crear los
+     * arreglos del lote.
+     */
+    private static int leerCantidadLote(ByteBuffer origen, int fin, int minimo) throws ProtocolException {
+        int cantidad = leerCantidad(origen, fin, minimo);
+        if (cantidad > MAXIMO_LOTE) {
+            throw new ProtocolException("El lote supera el máximo de " + MAXIMO_LOTE + " expresiones");
+        }
+        return cantidad;
+    }
+
+    /**
+     * Verifica que solo las tramas de lote superen {@link #MAXIMO_SIMPLE}. Se llama en cuanto se conoce el tipo,
+     * antes de agrandar un búfer para recibir la trama completa.
+     *
+     * @param largo El largo total de la trama.
+     * @param tipo El tipo de la trama.
+     * @throws ProtocolException Si la trama es demasiado larga para su tipo.
+     */
+    static void validarTipo(int largo, byte tipo) throws ProtocolException {
+        if (largo > MAXIMO_SIMPLE && tipo != LOTE && tipo != RESULTADO_LOTE) {
+            throw new ProtocolException("Trama de tipo " + tipo + " demasiado larga: " + largo);
+        }
+    }
+
+    /**
+     * Verifica el campo de largo de una trama.
+     *
+     * @param largo El valor del campo, sin contar sus propios 4 bytes.
+     * @return El largo total de la trama.
+     * @throws ProtocolException Si el largo es menor que el encabezado o mayor que el máximo.
+     */
+    private static int validarLargo(int largo) throws ProtocolException {
+        if (largo < ENCABEZADO - 4 || largo > MAXIMO - 4) {
+            throw new ProtocolException("Largo de trama inválido: " + largo);
+        }
+        return largo + 4;
+    }
+
+    /**
+     * Calcula cuántos bytes ocupa un texto en UTF-8. Un sustituto sin pareja se codifica como '?'.
+     *
+     * @param texto El texto a medir.
+     * @return La cantidad de bytes.
+     */
+    static int largoUtf8(CharSequence texto) {
+        int largo = 0;
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            if (c < 0x80) {
+                largo += 1;
+            } else if (c < 0x800) {
+                largo += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < texto.length() && Character.isLowSurrogate(texto.charAt(i + 1))) {
+                largo += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                largo += 1;
+            } else {
+                largo += 3;
+            }
+        }
+        return largo;
+    }
+
+    /**
+     * Escribe un texto en UTF-8 sin crear arreglos intermedios.
+     *
+     * @param destino El búfer donde se escribe.
+     * @param texto El texto a escribir.
+     */
+    static void escribirUtf8(ByteBuffer destino, CharSequence texto) {
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            if (c < 0x80) {
+                destino.put((byte) c);
+            } else if (c < 0x800) {
+                destino.put((byte) (0xC0 | (c >> 6)));
+                destino.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < texto.length() && Character.isLowSurrogate(texto.charAt(i + 1))) {
+                int punto = Character.toCodePoint(c, texto.charAt(++i));
+                destino.put((byte) (0xF0 | (punto >> 18)));
+                destino.put((byte) (0x80 | ((punto >> 12) & 0x3F)));
+                destino.put((byte) (0x80 | ((punto >> 6) & 0x3F)));
+                destino.put((byte) (0x80 | (punto & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                destino.put((byte) '?');
+            } else {
+                destino.put((byte) (0xE0 | (c >> 12)));
+                destino.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                destino.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * Devuelve un búfer con al menos la capacidad pedida, reutilizando el actual si alcanza.
+     *
+     * @param bufer El búfer actual.
+     * @param capacidad La capacidad necesaria.
+     * @return El mismo búfer limpio, o uno nuevo del mismo tipo y mayor tamaño.
+     */
+    static ByteBuffer asegurar(ByteBuffer bufer, int capacidad) {
+        if (bufer.capacity() >= capacidad) {
+            bufer.clear();
+            return bufer;
+        }
+        int nueva = Math.max(capacidad, bufer.capacity() * 2);
+        return bufer.isDirect() ? ByteBuffer.allocateDirect(nueva) : ByteBuffer.allocate(nueva);
+    }
+
+    /**
+     * Devuelve un búfer que ya no tiene datos pendientes a su tamaño inicial si creció más allá de
+     * {@link #RETENIDO}, para que una trama grande no deje a la conexión con un búfer grande para siempre.
+     *
+     * @param bufer El búfer, sin datos pendientes.
+     * @param inicial La capacidad inicial de los búferes de este tipo.
+     * @return El mismo búfer, o uno nuevo del mismo tipo con la capacidad inicial.
+     */
+    static ByteBuffer reducir(ByteBuffer bufer, int inicial) {
+        if (bufer.capacity() <= RETENIDO) {
+            return bufer;
+        }
+        return bufer.isDirect() ? ByteBuffer.allocateDirect(inicial) : ByteBuffer.allocate(inicial);
+    }
+}
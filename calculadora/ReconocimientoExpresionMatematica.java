@@ -1,23 +1,82 @@
 import org.opencv.core.Core;
 import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
-import org.opencv.highgui.VideoCapture;
-import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.core.Size;
+import org.opencv.videoio.VideoCapture;
 import org.opencv.imgproc.Imgproc;
-import org.opencv.core.MatOfRect;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
 import javax.swing.JFrame;
 import javax.swing.ImageIcon;
 import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
 
-import net.sourceforge.tess4j.Tesseract;
+import com.sun.jna.Pointer;
+import net.sourceforge.tess4j.ITessAPI;
+import net.sourceforge.tess4j.TessAPI1;
 import net.sourceforge.tess4j.TesseractException;
 
 /**
  * Esta clase realiza el reconocimiento de expresiones matemáticas impresas utilizando una cámara web y Tesseract OCR.
+ * El trabajo se divide en etapas para que la vista previa no se detenga mientras corre el OCR:
+ * <ul>
+ * <li>el hilo de captura lee la cámara y actualiza la vista previa a la velocidad de la cámara;</li>
+ * <li>un {@link DetectorCambios} compara cada cuadro con el anterior y solo pide OCR cuando la escena cambió y
+ * después se quedó quieta. Mientras la escena siga quieta vuelve a pedirlo cada tanto, hasta que la
+ * canalización confirma lo que ve o se agotan los intentos; así una hoja fija frente a la cámara no consume
+ * CPU en OCR;</li>
+ * <li>un {@link ReconocedorOcr} reconoce el texto en un grupo de hilos, cada uno con su propio Tesseract. Si
+ * llega un cuadro nuevo mientras todos están ocupados, se descarta el que esperaba: solo importa el más reciente.
+ * Cada hilo busca primero las regiones con texto ({@link DetectorRegiones}) y solo esas, recortadas y escaladas,
+ * llegan a Tesseract como píxeles en escala de grises, sin codificar la imagen;</li>
+ * <li>una {@link CanalizacionOcr} lleva el texto reconocido a la gramática de la calculadora, lo valida con el
+ * mismo analizador del servidor, espera a que varias lecturas coincidan, lo evalúa una sola vez en el mismo
+ * proceso y deja el resultado para que la vista previa lo muestre.</li>
+ * </ul>
+ * El OCR recibe el cuadro antes de que se dibuje el texto de la vista previa, así ese texto nunca se reconoce.
+ * <p>
+ * En régimen estable el hilo de captura no crea objetos grandes: las matrices, las copias para el OCR y las dos
+ * imágenes de la vista previa se crean una vez y se reutilizan, y la memoria nativa se libera con release() al
+ * terminar. Con -Dcalculadora.ocr.asignacion=true, {@link ContadorAsignacion} informa cada tanto los bytes
+ * asignados por cuadro para comprobarlo.
  */
 public class ReconocimientoExpresionMatematica {
+    // Ruta de los datos de entrenamiento de Tesseract. Reemplazar con la ruta correcta o usar -Dcalculadora.tesseract.datos.
+    static final String DATOS_TESSERACT = System.getProperty("calculadora.tesseract.datos", "path/to/tesseract/data");
+    static final int HILOS_OCR = Integer.getInteger("calculadora.ocr.hilos", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    // Lecturas seguidas de una escena estable que deben coincidir para evaluar una expresión.
+    static final int CONFIRMACIONES = Math.max(1, Integer.getInteger("calculadora.ocr.confirmaciones", 2));
+    // Pedidos de OCR de una misma escena estable antes de darla por reconocida aunque no se haya confirmado nada.
+    static final int INTENTOS_OCR = Math.max(CONFIRMACIONES, Integer.getInteger("calculadora.ocr.intentos", 4 * CONFIRMACIONES));
+
+    private static final String TITULO = "Captura una expresion matematica";
+    private static final org.opencv.core.Point POSICION_TITULO = new org.opencv.core.Point(10, 30);
+    private static final Scalar BLANCO = new Scalar(255, 255, 255);
+    private static final Scalar NEGRO = new Scalar(0, 0, 0);
+    private static final org.opencv.core.Point[] POSICIONES_RESULTADO = {
+        new org.opencv.core.Point(10, 80), new org.opencv.core.Point(10, 120), new org.opencv.core.Point(10, 160)
+    };
+
     /**
      * Método principal que inicia la aplicación de reconocimiento de expresiones matemáticas.
      *
@@ -40,41 +99,66 @@ public class ReconocimientoExpresionMatematica {
         frame.add(label);
         frame.setVisible(true);
 
-        Tesseract tesseract = new Tesseract();
-        tesseract.setDatapath("path/to/tesseract/data"); // Reemplazar con la ruta correcta a los datos de entrenamiento de Tesseract
-
-        while (true) {
-            Mat frameMat = new Mat();
-            camera.read(frameMat);
-
-            // Preprocesamiento de la imagen (ajuste de contraste, escala de grises, etc.)
-            Imgproc.cvtColor(frameMat, frameMat, Imgproc.COLOR_BGR2GRAY);
-            Imgproc.threshold(frameMat, frameMat, 0, 255, Imgproc.THRESH_BINARY | Imgproc.THRESH_OTSU);
-
-            MatOfRect boxes = new MatOfRect();
-            Imgproc.putText(frameMat, "Captura una expresion matematica", new org.opencv.core.Point(10, 30), Core.FONT_HERSHEY_SIMPLEX, 2.0, new Scalar(255, 255, 255), 3);
+        CanalizacionOcr canalizacion = new CanalizacionOcr(CONFIRMACIONES);
+        ReconocedorOcr reconocedor;
+        try {
+            reconocedor = new ReconocedorOcr(HILOS_OCR, canalizacion);
+        } catch (IllegalStateException e) {
+            // Sin Tesseract la cámara sigue funcionando como vista previa, pero no se pide ningún OCR.
+            System.out.println("Error: " + e.getMessage() + ". No se reconocerán expresiones.");
+            reconocedor = null;
+        }
+        ReconocedorOcr ocr = reconocedor;
+        Thread captura = new Thread(() -> capturar(camera, label, ocr, canalizacion), "captura");
+        captura.start();
+    }
 
+    /**
+     * Hilo de captura: lee cada cuadro, decide si hay que reconocerlo y actualiza la vista previa.
+     * Nunca espera al OCR.
+     *
+     * @param camera La cámara abierta.
+     * @param label La etiqueta donde se muestra la vista previa.
+     * @param reconocedor El grupo de hilos de OCR, o null si Tesseract no pudo iniciarse.
+     * @param canalizacion La etapa que evalúa lo reconocido; sus resultados se dibujan sobre la vista previa.
+     */
+    static void capturar(VideoCapture camera, JLabel label, ReconocedorOcr reconocedor, CanalizacionOcr canalizacion) {
+        DetectorCambios detector = new DetectorCambios(INTENTOS_OCR, canalizacion::getConfirmadas);
+        VistaPrevia vista = new VistaPrevia(label);
+        ContadorAsignacion asignacion = new ContadorAsignacion();
+        Mat frameMat = new Mat(); // Se reutiliza en cada cuadro: read, cvtColor y threshold escriben sobre ella.
+        try {
+            while (camera.read(frameMat)) {
+                // Preprocesamiento de la imagen (escala de grises y umbral de Otsu)
+                Imgproc.cvtColor(frameMat, frameMat, Imgproc.COLOR_BGR2GRAY);
+                boolean estable = detector.estable(frameMat); // Sobre los grises: el umbral amplifica el ruido del sensor.
+                Imgproc.threshold(frameMat, frameMat, 0, 255, Imgproc.THRESH_BINARY | Imgproc.THRESH_OTSU);
 
-            tesseract.setTessVariable("tessedit_char_whitelist", "0123456789()+-*/%=&|^~ ") ; // Caracteres permitidos
+                if (estable && reconocedor != null) {
+                    reconocedor.reconocer(frameMat); // El OCR recibe su propia copia, antes del texto de la vista previa.
+                }
 
-            tesseract.setPageSegMode(6); // Modo de segmentación de página PSM_SINGLE_LINE
+                Imgproc.putText(frameMat, TITULO, POSICION_TITULO, Core.FONT_HERSHEY_SIMPLEX, 2.0, BLANCO, 3);
+                String[] resultados = canalizacion.getResultados(); // Se dibujan después de la copia para el OCR.
+                for (int i = 0; i < resultados.length; i++) {
+                    Imgproc.putText(frameMat, resultados[i], POSICIONES_RESULTADO[i], Core.FONT_HERSHEY_SIMPLEX, 1.0, NEGRO, 2);
+                }
 
-            // Realiza el reconocimiento de texto utilizando Tesseract
-            try {
-                tesseract.doOCR(Imgcodecs.imencode(".png", frameMat, new Mat()));
-                String result = tesseract.getUTF8Text();
-                System.out.println("Expresión matemática reconocida: " + result);
-            } catch (TesseractException e) {
-                e.printStackTrace();
+                // Muestra la imagen en la ventana
+                vista.mostrar(frameMat);
+                asignacion.cuadro(vista.getOmitidos());
             }
-
-            // Muestra la imagen en la ventana
-            BufferedImage image = Mat2BufferedImage(frameMat);
-            label.setIcon(new ImageIcon(image));
-
-            frame.repaint();
+            System.out.println("Error: La cámara dejó de enviar imágenes.");
+        } finally {
+            if (reconocedor != null) {
+                reconocedor.cerrar();
+            }
+            detector.liberar();
+            frameMat.release();
+            camera.release();
         }
     }
+
     /**
      * Convierte una matriz OpenCV a una imagen BufferedImage.
      *
@@ -82,26 +166,713 @@ public class ReconocimientoExpresionMatematica {
      * @return La imagen BufferedImage resultante.
      */
     public static BufferedImage Mat2BufferedImage(Mat m) {
-        // Convierte una matriz OpenCV a una imagen BufferedImage
+        return Mat2BufferedImage(m, null);
+    }
+
+    /**
+     * Convierte una matriz OpenCV a una imagen BufferedImage, reutilizando una imagen existente si es compatible.
+     * Los píxeles se copian directamente al arreglo del raster de la imagen, sin arreglos intermedios.
+     *
+     * @param m La matriz OpenCV a convertir en imagen; debe ser continua.
+     * @param destino La imagen a reutilizar, o null.
+     * @return destino si tiene el tamaño y el tipo de la matriz; si no, una imagen nueva.
+     */
+    public static BufferedImage Mat2BufferedImage(Mat m, BufferedImage destino) {
         int type = BufferedImage.TYPE_BYTE_GRAY; // Tipo predeterminado de la imagen, en escala de grises.
 
         if (m.channels() > 1) {
             type = BufferedImage.TYPE_3BYTE_BGR; // Si la matriz tiene más de un canal (es a color), se utiliza el tipo 3BYTE_BGR.
         }
-        
-        int bufferSize = m.channels() * m.cols() * m.rows(); // Tamaño del búfer para almacenar los bytes de la matriz.
-        byte[] b = new byte[bufferSize]; // Se crea un arreglo de bytes para almacenar los datos de la matriz.
-        
-        m.get(0, 0, b); // Se copian los datos de la matriz en el arreglo de bytes.
-        
-        BufferedImage image = new BufferedImage(m.cols(), m.rows(), type); // Se crea una nueva imagen con el tipo y dimensiones adecuadas.
-        final byte[] targetPixels = ((java.awt.image.DataBufferByte) image.getRaster().getDataBuffer()).getData(); // Se obtiene un arreglo de bytes de los píxeles de la imagen.
-        
-        System.arraycopy(b, 0, targetPixels, 0, b.length); // Se copian los datos desde el arreglo de bytes de la matriz al arreglo de bytes de la imagen.
-        
+
+        BufferedImage image = destino;
+        if (image == null || image.getWidth() != m.cols() || image.getHeight() != m.rows() || image.getType() != type) {
+            image = new BufferedImage(m.cols(), m.rows(), type); // Se crea una nueva imagen con el tipo y dimensiones adecuadas.
+        }
+        byte[] targetPixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData(); // Arreglo de los píxeles de la imagen.
+
+        m.get(0, 0, targetPixels); // Se copian los datos de la matriz directamente en los píxeles de la imagen.
+
         return image; // Se retorna la imagen convertida.
     }
 }
 
+/**
+ * Decide cuándo vale la pena reconocer un cuadro. Cada cuadro se reduce a 64x48 y se compara con el anterior
+ * (diferencia absoluta media, de 0 a 255). La escena se considera estable cuando, después de un cambio, pasa
+ * una cantidad de cuadros seguidos casi sin diferencias; entonces se pide un OCR enseguida y otro cada
+ * {@link #INTERVALO} cuadros mientras siga quieta, hasta que {@link CanalizacionOcr} confirma una expresión o
+ * se hacen {@link #intentos} pedidos. Recién entonces la escena queda como reconocida y no se piden más OCR
+ * hasta el próximo cambio. Como la canalización solo cuenta los cuadros que el OCR llegó a reconocer, la
+ * confirmación no depende de cuántos hilos de OCR haya.
+ * El cambio se mide contra la última escena reconocida, así un movimiento lento también se detecta.
+ */
+class DetectorCambios {
+    static final Size TAMANO = new Size(64, 48);
+    static final double UMBRAL_CAMBIO = 8;  // Diferencia con la última escena reconocida que cuenta como escena nueva.
+    static final double UMBRAL_QUIETO = 2;  // Diferencia con el cuadro anterior por debajo de la cual no hay movimiento.
+    static final int CUADROS_QUIETOS = 5;   // Cuadros seguidos sin movimiento para considerar la escena estable.
+    static final int INTERVALO = 5;         // Cuadros entre dos pedidos de OCR de la misma escena.
+
+    private final Mat reducido = new Mat();
+    private final Mat anterior = new Mat();
+    private final Mat reconocido = new Mat(); // Última escena confirmada o abandonada.
+    private final Mat diferencia = new Mat();
+    private final int intentos;
+    private final LongSupplier confirmadas;
+    private int quietos;
+    private boolean reconociendo; // Se está pidiendo OCR de la escena estable actual.
+    private long confirmadasAlEmpezar;
+    private int pedidos;
+    private int cuadros; // Cuadros desde el último pedido.
+
+    /**
+     * @param intentos Pedidos de OCR de una escena estable antes de darla por reconocida sin confirmación.
+     * @param confirmadas La cantidad de confirmaciones de {@link CanalizacionOcr}; cuando cambia, la escena
+     * actual queda reconocida.
+     */
+    DetectorCambios(int intentos, LongSupplier confirmadas) {
+        this.intentos = intentos;
+        this.confirmadas = confirmadas;
+    }
+
+    /**
+     * @param gris El cuadro en escala de grises.
+     * @return true si hay que reconocer este cuadro.
+     */
+    boolean estable(Mat gris) {
+        Imgproc.resize(gris, reducido, TAMANO, 0, 0, Imgproc.INTER_AREA);
+        if (anterior.empty()) {
+            reducido.copyTo(anterior);
+            return false;
+        }
+        boolean quieto = diferenciaMedia(reducido, anterior) < UMBRAL_QUIETO;
+        reducido.copyTo(anterior);
+        quietos = quieto ? quietos + 1 : 0;
+        if (quietos < CUADROS_QUIETOS) {
+            reconociendo = false; // Si la escena vuelve a quedarse quieta, se empieza de nuevo.
+            return false;
+        }
+        if (reconociendo) {
+            if (confirmadas.getAsLong() != confirmadasAlEmpezar || pedidos >= intentos) {
+                reducido.copyTo(reconocido);
+                reconociendo = false;
+                return false;
+            }
+            if (++cuadros < INTERVALO) {
+                return false;
+            }
+            cuadros = 0;
+            pedidos++;
+            return true;
+        }
+        if (!reconocido.empty() && diferenciaMedia(reducido, reconocido) < UMBRAL_CAMBIO) {
+            return false; // La escena estable es la misma que ya se reconoció.
+        }
+        reconociendo = true;
+        confirmadasAlEmpezar = confirmadas.getAsLong();
+        pedidos = 1;
+        cuadros = 0;
+        return true;
+    }
+
+    /**
+     * Libera la memoria nativa de las matrices.
+     */
+    void liberar() {
+        reducido.release();
+        anterior.release();
+        reconocido.release();
+        diferencia.release();
+    }
+
+    private double diferenciaMedia(Mat a, Mat b) {
+        Core.absdiff(a, b, diferencia);
+        return Core.mean(diferencia).val[0];
+    }
+}
 
+/**
+ * Grupo de hilos de OCR. Hay un {@link MotorOcr} por hilo, creados y configurados una sola vez al construir el
+ * grupo; cada reconocimiento toma un motor libre y lo devuelve al terminar, así una instancia de Tesseract nunca
+ * se usa desde dos hilos a la vez. Si Tesseract no puede iniciarse, el grupo no se crea. La cola tiene lugar para un solo cuadro: si llega otro mientras todos los
+ * hilos están ocupados, el que esperaba se descarta y su matriz vuelve al conjunto de libres.
+ * <p>
+ * Los cuadros se copian a matrices de un conjunto fijo (una por hilo, más la que espera en la cola y una de reserva),
+ * que se reutilizan en lugar de crear un clon por cuadro.
+ */
+class ReconocedorOcr {
+    private final ThreadPoolExecutor hilos;
+    private final List<MotorOcr> creados = new ArrayList<>();
+    private final ArrayBlockingQueue<MotorOcr> motores; // Motores libres; hay uno por hilo.
+    private final ArrayBlockingQueue<Mat> libres;
+    private final Consumer<List<String>> alReconocer;
+    private final LongAdder descartados = new LongAdder();
 
+    /**
+     * @param cantidad La cantidad de hilos de OCR.
+     * @param alReconocer Función que recibe, desde un hilo de OCR, el texto de las regiones de cada cuadro
+     * reconocido, incluso si no tiene ninguna.
+     * @throws IllegalStateException Si Tesseract no puede iniciarse, por ejemplo porque no encuentra los datos de
+     * entrenamiento.
+     */
+    ReconocedorOcr(int cantidad, Consumer<List<String>> alReconocer) {
+        this.alReconocer = alReconocer;
+        motores = new ArrayBlockingQueue<>(cantidad);
+        try {
+            for (int i = 0; i < cantidad; i++) {
+                MotorOcr motor = new MotorOcr();
+                creados.add(motor);
+                motores.add(motor);
+            }
+        } catch (IllegalStateException e) {
+            for (MotorOcr motor : creados) {
+                motor.liberar();
+            }
+            throw e;
+        }
+        libres = new ArrayBlockingQueue<>(cantidad + 2);
+        for (int i = 0; i < cantidad + 2; i++) {
+            libres.add(new Mat());
+        }
+        AtomicInteger numero = new AtomicInteger();
+        RejectedExecutionHandler descartarViejo = (tarea, ejecutor) -> {
+            Runnable vieja = ejecutor.getQueue().poll();
+            if (vieja != null) {
+                ((Reconocimiento) vieja).descartar();
+            }
+            if (!ejecutor.getQueue().offer(tarea)) {
+                ((Reconocimiento) tarea).descartar();
+            }
+        };
+        hilos = new ThreadPoolExecutor(cantidad, cantidad, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1), tarea -> {
+            Thread hilo = new Thread(tarea, "ocr-" + numero.getAndIncrement());
+            hilo.setDaemon(true);
+            return hilo;
+        }, descartarViejo);
+    }
+
+    /**
+     * Pide el reconocimiento de un cuadro sin esperar el resultado.
+     *
+     * @param cuadro El cuadro binarizado. Se copia, así que quien llama puede seguir usándolo.
+     */
+    void reconocer(Mat cuadro) {
+        Mat copia = libres.poll();
+        if (copia == null) {
+            descartados.increment(); // No debería pasar: hay una matriz por cada lugar posible de un cuadro.
+            return;
+        }
+        cuadro.copyTo(copia); // Reutiliza la memoria de la copia si el tamaño no cambió.
+        hilos.execute(new Reconocimiento(copia));
+    }
+
+    /**
+     * Detiene los hilos de OCR y libera la memoria nativa de las matrices, incluidas las de cada motor. El cuadro
+     * que esperaba en la cola vuelve al conjunto de libres. Si algún hilo no termina a tiempo, los motores no se
+     * liberan: ese hilo podría seguir usando su Tesseract y sus matrices.
+     */
+    void cerrar() {
+        for (Runnable pendiente : hilos.shutdownNow()) {
+            ((Reconocimiento) pendiente).descartar();
+        }
+        boolean terminados = false;
+        try {
+            terminados = hilos.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (terminados) {
+            for (MotorOcr motor : creados) {
+                motor.liberar();
+            }
+        }
+        for (Mat libre; (libre = libres.poll()) != null; ) {
+            libre.release();
+        }
+    }
+
+    /**
+     * @return La cantidad de cuadros descartados porque llegó uno más reciente.
+     */
+    long getDescartados() {
+        return descartados.sum();
+    }
+
+    private final class Reconocimiento implements Runnable {
+        private final Mat cuadro;
+
+        Reconocimiento(Mat cuadro) {
+            this.cuadro = cuadro;
+        }
+
+        void descartar() {
+            descartados.increment();
+            libres.offer(cuadro);
+        }
+
+        @Override
+        public void run() {
+            MotorOcr motor = motores.poll(); // Nunca falta: hay tantos motores como hilos.
+            try {
+                alReconocer.accept(motor.reconocer(cuadro));
+            } catch (TesseractException e) {
+                e.printStackTrace();
+            } finally {
+                motores.offer(motor);
+                libres.offer(cuadro);
+            }
+        }
+    }
+}
+
+/**
+ * Busca las regiones de un cuadro binarizado que parecen renglones de texto. La tinta se invierte para que quede
+ * blanca, un cierre morfológico con un núcleo ancho y bajo une los caracteres de cada renglón, y de los contornos
+ * externos se conservan los rectángulos con tamaño de texto: ni motas de ruido ni manchas del tamaño del cuadro.
+ */
+class DetectorRegiones {
+    static final int MAXIMO_REGIONES = 3;  // Regiones más grandes que se reconocen por cuadro.
+    static final int ALTURA_MINIMA = 10;   // Píxeles de alto por debajo de los cuales una región es ruido.
+    static final int MARGEN = 6;           // Píxeles que se agregan alrededor de cada región.
+
+    private final Mat tinta = new Mat();
+    private final Mat jerarquia = new Mat();
+    private Mat nucleo;
+    private int anchoNucleo;
+
+    /**
+     * @param binaria El cuadro binarizado: tinta negra (0) sobre papel blanco (255).
+     * @return Las regiones con texto, de arriba hacia abajo.
+     */
+    List<Rect> buscar(Mat binaria) {
+        Imgproc.threshold(binaria, tinta, 127, 255, Imgproc.THRESH_BINARY_INV);
+        // El núcleo une caracteres separados hasta por 1/40 del ancho del cuadro, sin unir renglones.
+        int ancho = Math.max(9, binaria.cols() / 40);
+        if (nucleo == null || ancho != anchoNucleo) {
+            if (nucleo != null) {
+                nucleo.release();
+            }
+            nucleo = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(ancho, 3));
+            anchoNucleo = ancho;
+        }
+        Imgproc.morphologyEx(tinta, tinta, Imgproc.MORPH_CLOSE, nucleo);
+
+        List<MatOfPoint> contornos = new ArrayList<>();
+        Imgproc.findContours(tinta, contornos, jerarquia, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+        List<Rect> regiones = new ArrayList<>();
+        for (MatOfPoint contorno : contornos) {
+            Rect caja = Imgproc.boundingRect(contorno);
+            contorno.release();
+            boolean tamanoTexto = caja.height >= ALTURA_MINIMA && caja.height <= binaria.rows() / 2
+                    && caja.width > caja.height / 2 && caja.width < binaria.cols() * 0.98;
+            if (tamanoTexto) {
+                regiones.add(ampliar(caja, binaria.cols(), binaria.rows()));
+            }
+        }
+        regiones.sort(Comparator.comparingInt(Rect::area).reversed());
+        if (regiones.size() > MAXIMO_REGIONES) {
+            regiones.subList(MAXIMO_REGIONES, regiones.size()).clear();
+        }
+        regiones.sort(Comparator.comparingInt(caja -> caja.y));
+        return regiones;
+    }
+
+    /**
+     * Libera la memoria nativa de las matrices.
+     */
+    void liberar() {
+        tinta.release();
+        jerarquia.release();
+        if (nucleo != null) {
+            nucleo.release();
+        }
+    }
+
+    private static Rect ampliar(Rect caja, int ancho, int alto) {
+        int x = Math.max(0, caja.x - MARGEN);
+        int y = Math.max(0, caja.y - MARGEN);
+        return new Rect(x, y, Math.min(ancho, caja.x + caja.width + MARGEN) - x, Math.min(alto, caja.y + caja.height + MARGEN) - y);
+    }
+}
+
+/**
+ * Tesseract de un hilo de OCR, con sus matrices y su búfer de trabajo. Cada región se recorta, se escala para
+ * que sus caracteres tengan la altura con la que Tesseract reconoce mejor, y se le pasa como píxeles de 8 bits
+ * en un ByteBuffer directo, sin codificarla como PNG ni convertirla en BufferedImage.
+ * <p>
+ * El motor usa directamente la API de Tesseract ({@link TessAPI1}) con un único TessBaseAPI que se inicia una
+ * vez, al crear el motor, y se destruye en {@link #liberar()}: los doOCR de {@link net.sourceforge.tess4j.Tesseract}
+ * cargan los datos de entrenamiento y los descartan en cada llamada, es decir, en cada región.
+ */
+class MotorOcr {
+    static final int ALTURA_OCR = 48;  // Alto en píxeles al que se escala cada renglón.
+    static final int BORDE = 10;       // Papel blanco alrededor del renglón; Tesseract falla con texto pegado al borde.
+
+    private final ITessAPI.TessBaseAPI api = TessAPI1.TessBaseAPICreate();
+    private final DetectorRegiones detector = new DetectorRegiones();
+    private final Mat escalada = new Mat();
+    private final Mat conBorde = new Mat();
+    private byte[] pixeles = new byte[0];
+    private ByteBuffer bufer = ByteBuffer.allocateDirect(0);
+
+    /**
+     * @throws IllegalStateException Si Tesseract no puede cargar los datos de entrenamiento.
+     */
+    MotorOcr() {
+        if (TessAPI1.TessBaseAPIInit3(api, ReconocimientoExpresionMatematica.DATOS_TESSERACT, "eng") != 0) {
+            TessAPI1.TessBaseAPIDelete(api);
+            throw new IllegalStateException("No se pudo iniciar Tesseract con los datos de "
+                    + ReconocimientoExpresionMatematica.DATOS_TESSERACT);
+        }
+        TessAPI1.TessBaseAPISetVariable(api, "tessedit_char_whitelist", "0123456789.()+-*/%=&|^~ "); // Caracteres permitidos
+        TessAPI1.TessBaseAPISetPageSegMode(api, ITessAPI.TessPageSegMode.PSM_SINGLE_LINE); // Cada región es un renglón.
+    }
+
+    /**
+     * @param binaria El cuadro binarizado.
+     * @return El texto de cada región con texto, de arriba hacia abajo; sin las regiones que quedan vacías.
+     */
+    List<String> reconocer(Mat binaria) throws TesseractException {
+        List<String> textos = new ArrayList<>();
+        for (Rect region : detector.buscar(binaria)) {
+            Mat recorte = binaria.submat(region);
+            double escala = Math.max(0.25, Math.min(4.0, (double) ALTURA_OCR / region.height));
+            Imgproc.resize(recorte, escalada, new Size(), escala, escala, escala < 1 ? Imgproc.INTER_AREA : Imgproc.INTER_CUBIC);
+            recorte.release();
+            Core.copyMakeBorder(escalada, conBorde, BORDE, BORDE, BORDE, BORDE, Core.BORDER_CONSTANT, new Scalar(255));
+            String texto = reconocerRenglon(conBorde);
+            if (!texto.isEmpty()) {
+                textos.add(texto);
+            }
+        }
+        return textos;
+    }
+
+    /**
+     * Reconoce un renglón con el TessBaseAPI del motor, que conserva los datos cargados entre llamadas.
+     *
+     * @param renglon La imagen del renglón, continua y de un canal.
+     * @return El texto reconocido, sin espacios al principio ni al final.
+     */
+    private String reconocerRenglon(Mat renglon) throws TesseractException {
+        TessAPI1.TessBaseAPISetImage(api, copiar(renglon), renglon.cols(), renglon.rows(), 1, renglon.cols());
+        Pointer texto = TessAPI1.TessBaseAPIGetUTF8Text(api);
+        if (texto == null) {
+            throw new TesseractException("Tesseract no pudo reconocer la región");
+        }
+        try {
+            return texto.getString(0, "UTF-8").trim();
+        } finally {
+            TessAPI1.TessDeleteText(texto);
+        }
+    }
+
+    /**
+     * Copia los píxeles de una matriz continua de un canal al búfer directo, que solo crece.
+     */
+    private ByteBuffer copiar(Mat imagen) {
+        int largo = imagen.cols() * imagen.rows();
+        if (pixeles.length < largo) {
+            pixeles = new byte[largo];
+            bufer = ByteBuffer.allocateDirect(largo);
+        }
+        imagen.get(0, 0, pixeles);
+        bufer.clear();
+        bufer.put(pixeles, 0, largo);
+        bufer.flip();
+        return bufer;
+    }
+
+    /**
+     * Libera la memoria nativa de las matrices y de Tesseract. Solo se llama cuando el hilo del motor ya terminó.
+     */
+    void liberar() {
+        TessAPI1.TessBaseAPIEnd(api);
+        TessAPI1.TessBaseAPIDelete(api);
+        detector.liberar();
+        escalada.release();
+        conBorde.release();
+    }
+}
+
+/**
+ * Vista previa con doble búfer. Cada cuadro se copia en la imagen que no se está mostrando y luego se le pide al
+ * hilo de Swing que la muestre. Si Swing todavía no mostró el cuadro anterior, el nuevo se omite: escribir sobre
+ * una imagen que Swing puede estar pintando produciría cuadros mezclados.
+ */
+class VistaPrevia {
+    private final JLabel label;
+    private final BufferedImage[] imagenes = new BufferedImage[2];
+    private final ImageIcon[] iconos = new ImageIcon[2];
+    private final Runnable[] mostrarEnSwing = new Runnable[2];
+    private final AtomicBoolean pendiente = new AtomicBoolean();
+    private int trasero; // Índice de la imagen en la que se escribe el próximo cuadro.
+    private long omitidos;
+
+    VistaPrevia(JLabel label) {
+        this.label = label;
+        for (int i = 0; i < 2; i++) {
+            int indice = i;
+            mostrarEnSwing[i] = () -> {
+                label.setIcon(iconos[indice]);
+                label.repaint();
+                pendiente.set(false);
+            };
+        }
+    }
+
+    /**
+     * Muestra un cuadro. Lo llama solo el hilo de captura.
+     *
+     * @param cuadro El cuadro a mostrar; debe ser continuo.
+     */
+    void mostrar(Mat cuadro) {
+        if (pendiente.get()) {
+            omitidos++;
+            return;
+        }
+        BufferedImage imagen = ReconocimientoExpresionMatematica.Mat2BufferedImage(cuadro, imagenes[trasero]);
+        if (imagen != imagenes[trasero]) {
+            imagenes[trasero] = imagen; // Primer cuadro o cambio de tamaño: solo entonces se crean imagen e ícono.
+            iconos[trasero] = new ImageIcon(imagen);
+        }
+        pendiente.set(true);
+        SwingUtilities.invokeLater(mostrarEnSwing[trasero]);
+        trasero ^= 1;
+    }
+
+    /**
+     * @return La cantidad de cuadros que no se mostraron porque Swing no había mostrado el anterior.
+     */
+    long getOmitidos() {
+        return omitidos;
+    }
+}
+
+/**
+ * Mide cuánta memoria del heap asigna el hilo que lo usa, con el contador por hilo de la JVM
+ * (com.sun.management.ThreadMXBean), e informa cada {@link #CUADROS_INFORME} cuadros el promedio de bytes por
+ * cuadro. En régimen estable el hilo de captura debería asignar solo unos pocos objetos chicos por cuadro.
+ * Es un diagnóstico: solo mide e informa con -Dcalculadora.ocr.asignacion=true.
+ */
+class ContadorAsignacion {
+    static final int CUADROS_INFORME = 300; // Unos 10 segundos a 30 cuadros por segundo.
+    static final boolean ACTIVO = Boolean.getBoolean("calculadora.ocr.asignacion");
+
+    private final com.sun.management.ThreadMXBean hilos;
+    private long inicio;
+    private int cuadros;
+
+    ContadorAsignacion() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        hilos = ACTIVO && bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()
+                ? (com.sun.management.ThreadMXBean) bean : null;
+        inicio = asignados();
+    }
+
+    /**
+     * Cuenta un cuadro procesado e informa si corresponde.
+     *
+     * @param omitidos Los cuadros omitidos por la vista previa hasta ahora, para el informe.
+     */
+    void cuadro(long omitidos) {
+        if (hilos == null || ++cuadros < CUADROS_INFORME) {
+            return;
+        }
+        long bytes = asignados() - inicio;
+        System.out.println("Captura: " + bytes / cuadros + " bytes asignados por cuadro en los últimos " + cuadros
+                + " cuadros (" + omitidos + " omitidos en la vista previa)");
+        cuadros = 0;
+        inicio = asignados(); // Después del informe, para no contar su propia asignación.
+    }
+
+    private long asignados() {
+        return hilos == null ? 0 : hilos.getCurrentThreadAllocatedBytes();
+    }
+}
+
+/**
+ * Lleva el texto reconocido por el OCR hasta el evaluador de la calculadora:
+ * <ol>
+ * <li>{@link #normalizar(String)} traduce el texto a la gramática de la calculadora;</li>
+ * <li>la expresión se valida con el mismo analizador y la misma caché de programas del servidor
+ * ({@link ArbolExpresion#cache}), así una lectura ilegible se descarta sin evaluarla;</li>
+ * <li>una expresión se evalúa solo cuando aparece en {@link #confirmaciones} cuadros reconocidos seguidos, y una
+ * vez evaluada no se vuelve a evaluar mientras siga a la vista: cada lectura la renueva, y solo si pasan
+ * -Dcalculadora.ocr.repeticion milisegundos (30000) sin verla se evalúa de nuevo. Cada cuadro con una expresión
+ * confirmada, nueva o ya evaluada, cuenta en {@link #getConfirmadas()}, que {@link DetectorCambios} consulta
+ * para dejar de pedir OCR de la escena;</li>
+ * <li>la evaluación usa {@link ArbolExpresion#evaluar(String)} en este mismo proceso, sin pasar por la red, y
+ * los últimos resultados quedan disponibles para dibujarlos sobre la vista previa.</li>
+ * </ol>
+ * La reciben los hilos de OCR, posiblemente varios a la vez.
+ */
+class CanalizacionOcr implements Consumer<List<String>> {
+    static final int MAXIMO_RESULTADOS = 3;     // Resultados que se muestran sobre la vista previa.
+    static final int MAXIMO_EVALUADAS = 64;     // Expresiones evaluadas que se recuerdan para no repetirlas.
+    static final long REPETICION = TimeUnit.MILLISECONDS.toNanos(Long.getLong("calculadora.ocr.repeticion", 30_000));
+
+    private final int confirmaciones;
+    private Map<String, Integer> candidatas = new HashMap<>(); // Expresiones del último cuadro y sus lecturas seguidas.
+    private final Map<String, Long> evaluadas = new LinkedHashMap<>(16, 0.75f, true) { // Expresión -> última vez vista.
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> mayor) {
+            return size() > MAXIMO_EVALUADAS;
+        }
+    };
+    private volatile String[] resultados = new String[0];
+    private volatile long confirmadas; // Cuadros con alguna expresión confirmada. Solo se modifica en confirmar.
+
+    /**
+     * @param confirmaciones Cuadros reconocidos seguidos en los que debe aparecer una expresión para evaluarla.
+     */
+    CanalizacionOcr(int confirmaciones) {
+        this.confirmaciones = confirmaciones;
+    }
+
+    /**
+     * Procesa el texto de las regiones de un cuadro reconocido.
+     *
+     * @param textos El texto de cada región, como lo devolvió el OCR.
+     */
+    @Override
+    public void accept(List<String> textos) {
+        List<String> validas = new ArrayList<>(textos.size());
+        for (String texto : textos) {
+            String expresion = normalizar(texto);
+            if (expresion != null && valida(expresion) && !validas.contains(expresion)) {
+                validas.add(expresion);
+            }
+        }
+        for (String expresion : confirmar(validas, System.nanoTime())) {
+            String resultado = expresion + " = " + ArbolExpresion.evaluar(expresion);
+            System.out.println("Expresión matemática reconocida: " + resultado);
+            publicar(resultado);
+        }
+    }
+
+    /**
+     * Actualiza las lecturas seguidas de cada expresión con las de un cuadro nuevo.
+     *
+     * @param validas Las expresiones válidas del cuadro, sin repetir.
+     * @param ahora El instante del cuadro (System.nanoTime()).
+     * @return Las expresiones que deben evaluarse ahora.
+     */
+    synchronized List<String> confirmar(List<String> validas, long ahora) {
+        Map<String, Integer> siguientes = new HashMap<>();
+        List<String> nuevas = new ArrayList<>();
+        boolean confirmada = false;
+        for (String expresion : validas) {
+            int lecturas = candidatas.getOrDefault(expresion, 0) + 1;
+            siguientes.put(expresion, lecturas);
+            Long vista = evaluadas.get(expresion);
+            if (vista != null && ahora - vista < REPETICION) {
+                evaluadas.put(expresion, ahora); // Sigue a la vista: ya se evaluó.
+                confirmada = true;
+            } else if (lecturas >= confirmaciones) {
+                evaluadas.put(expresion, ahora);
+                nuevas.add(expresion);
+                confirmada = true;
+            }
+        }
+        candidatas = siguientes; // Una expresión que faltó en este cuadro vuelve a empezar su cuenta.
+        if (confirmada) {
+            confirmadas++;
+        }
+        return nuevas;
+    }
+
+    /**
+     * @return La cantidad de cuadros reconocidos en los que se confirmó alguna expresión, nueva o ya evaluada.
+     */
+    long getConfirmadas() {
+        return confirmadas;
+    }
+
+    private static boolean valida(String expresion) {
+        try {
+            ArbolExpresion.cache.obtener(expresion);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private synchronized void publicar(String resultado) {
+        String[] anteriores = resultados;
+        int conservados = Math.min(anteriores.length, MAXIMO_RESULTADOS - 1);
+        String[] nuevos = new String[conservados + 1];
+        System.arraycopy(anteriores, anteriores.length - conservados, nuevos, 0, conservados);
+        nuevos[conservados] = resultado;
+        resultados = nuevos;
+    }
+
+    /**
+     * @return Los últimos resultados, del más viejo al más reciente, como "expresión = valor". El arreglo no cambia.
+     */
+    String[] getResultados() {
+        return resultados;
+    }
+
+    /**
+     * Traduce el texto del OCR a la gramática de la calculadora: quita los espacios, corta en el primer signo
+     * igual (lo que sigue es la respuesta que se espera, no parte de la expresión) y reemplaza los caracteres que
+     * el OCR suele confundir, como x por *, ÷ por / u O por 0.
+     *
+     * @param texto El texto reconocido.
+     * @return La expresión, o null si queda vacía o tiene caracteres que no pertenecen a la gramática.
+     */
+    static String normalizar(String texto) {
+        StringBuilder expresion = new StringBuilder(texto.length());
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            if (c == '=') {
+                break;
+            }
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            char equivalente = equivalente(c);
+            if (equivalente == 0) {
+                return null;
+            }
+            expresion.append(equivalente);
+        }
+        return expresion.length() == 0 ? null : expresion.toString();
+    }
+
+    /**
+     * @return El carácter de la gramática que corresponde a un carácter reconocido, o 0 si no corresponde ninguno.
+     */
+    private static char equivalente(char c) {
+        if (c >= '0' && c <= '9' || c == '.' || c == '(' || c == ')' || ArbolExpresion.esOperador(c)) {
+            return c;
+        }
+        switch (c) {
+            case 'x': case 'X': case '×': case '·':
+                return '*';
+            case '÷': case ':':
+                return '/';
+            case '−': case '–': case '—':
+                return '-';
+            case ',':
+                return '.';
+            case '[': case '{':
+                return '(';
+            case ']': case '}':
+                return ')';
+            case 'O': case 'o': case 'D': case 'Q':
+                return '0';
+            case 'l': case 'I':
+                return '1';
+            case 'S': case 's':
+                return '5';
+            case 'B':
+                return '8';
+            case 'Z': case 'z':
+                return '2';
+            default:
+                return 0;
+        }
+    }
+}
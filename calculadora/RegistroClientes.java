@@ -0,0 +1,247 @@
+import java.util.Arrays;
+
+/**
+ * Registro concurrente de clientes, identificados por su puerto. Guarda para cada cliente el momento en que se
+ * comunicó por última vez y su turno para el límite de tasa de {@link Admision}, en tablas hash de direccionamiento abierto sobre arreglos primitivos (sin objetos
+ * por cliente). Registrar, buscar y eliminar toman tiempo constante; el registro se divide en segmentos con
+ * su propio candado para que varios hilos lo usen a la vez.
+ */
+public class RegistroClientes {
+    private static final int SEGMENTOS = 16;       // Potencia de 2.
+    private static final int CAPACIDAD_INICIAL = 16; // Casillas iniciales de cada segmento, potencia de 2.
+    private static final long VACIO = Long.MIN_VALUE; // Marca de casilla libre en el arreglo de tiempos.
+
+    private final Segmento[] segmentos = new Segmento[SEGMENTOS];
+    private final long inactividadMaxima; // Milisegundos sin comunicarse tras los cuales se desaloja un cliente.
+
+    /**
+     * Crea un registro vacío.
+     *
+     * @param inactividadMaxima Milisegundos sin comunicarse tras los cuales un cliente puede desalojarse.
+     */
+    public RegistroClientes(long inactividadMaxima) {
+        this.inactividadMaxima = inactividadMaxima;
+        for (int i = 0; i < SEGMENTOS; i++) {
+            segmentos[i] = new Segmento();
+        }
+    }
+
+    /**
+     * Registra un cliente o, si ya estaba registrado, actualiza el momento de su última comunicación.
+     *
+     * @param cliente El puerto del cliente.
+     * @return true si el cliente no estaba registrado.
+     */
+    public boolean registrar(int cliente) {
+        int hash = mezclar(cliente);
+        return segmentos[hash & (SEGMENTOS - 1)].poner(cliente, hash, System.currentTimeMillis());
+    }
+
+    /**
+     * Aplica el límite de tasa de {@link Admision} a una solicitud de un cliente.
+     *
+     * @param cliente El puerto del cliente.
+     * @return true si la solicitud se admite; un cliente que no está registrado siempre se admite.
+     */
+    public boolean admitir(int cliente) {
+        if (!Admision.limitada()) {
+            return true;
+        }
+        int hash = mezclar(cliente);
+        return segmentos[hash & (SEGMENTOS - 1)].admitir(cliente, hash, System.nanoTime());
+    }
+
+    /**
+     * Verifica si un cliente está registrado.
+     *
+     * @param cliente El puerto del cliente.
+     * @return true si está registrado.
+     */
+    public boolean contiene(int cliente) {
+        int hash = mezclar(cliente);
+        return segmentos[hash & (SEGMENTOS - 1)].ultimaVez(cliente, hash) != VACIO;
+    }
+
+    /**
+     * Obtiene el momento de la última comunicación de un cliente.
+     *
+     * @param cliente El puerto del cliente.
+     * @return El tiempo en milisegundos de System.currentTimeMillis, o -1 si no está registrado.
+     */
+    public long ultimaVez(int cliente) {
+        int hash = mezclar(cliente);
+        long vez = segmentos[hash & (SEGMENTOS - 1)].ultimaVez(cliente, hash);
+        return vez == VACIO ? -1 : vez;
+    }
+
+    /**
+     * Elimina un cliente del registro.
+     *
+     * @param cliente El puerto del cliente.
+     * @return true si estaba registrado.
+     */
+    public boolean eliminar(int cliente) {
+        int hash = mezclar(cliente);
+        return segmentos[hash & (SEGMENTOS - 1)].quitar(cliente, hash);
+    }
+
+    /**
+     * Desaloja los clientes que no se comunican desde hace más de la inactividad máxima.
+     *
+     * @return La cantidad de clientes desalojados.
+     */
+    public int desalojarInactivos() {
+        long limite = System.currentTimeMillis() - inactividadMaxima;
+        int desalojados = 0;
+        for (Segmento segmento : segmentos) {
+            desalojados += segmento.desalojar(limite);
+        }
+        return desalojados;
+    }
+
+    /**
+     * @return La cantidad de clientes registrados.
+     */
+    public int tamano() {
+        int total = 0;
+        for (Segmento segmento : segmentos) {
+            synchronized (segmento) {
+                total += segmento.cantidad;
+            }
+        }
+        return total;
+    }
+
+    public long getInactividadMaxima() {
+        return inactividadMaxima;
+    }
+
+    /**
+     * Dispersa los bits del puerto para que puertos consecutivos no caigan en casillas consecutivas.
+     */
+    private static int mezclar(int clave) {
+        int h = clave * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Tabla de direccionamiento abierto con sondeo lineal. Las claves, los tiempos y los turnos van en arreglos paralelos.
+     */
+    private static final class Segmento {
+        int[] claves = new int[CAPACIDAD_INICIAL];
+        long[] tiempos = vacios(CAPACIDAD_INICIAL);
+        long[] turnos = new long[CAPACIDAD_INICIAL];
+        int cantidad;
+
+        private static long[] vacios(int capacidad) {
+            long[] tiempos = new long[capacidad];
+            Arrays.fill(tiempos, VACIO);
+            return tiempos;
+        }
+
+        /**
+         * Busca la casilla de una clave.
+         *
+         * @return La casilla de la clave, o la casilla libre donde debería ir.
+         */
+        private int casilla(int clave, int hash) {
+            int mascara = claves.length - 1;
+            // Los bits bajos del hash ya eligieron el segmento; dentro del segmento se usan los altos.
+            int i = (hash >>> 4) & mascara;
+            while (tiempos[i] != VACIO && claves[i] != clave) {
+                i = (i + 1) & mascara;
+            }
+            return i;
+        }
+
+        synchronized boolean poner(int clave, int hash, long ahora) {
+            int i = casilla(clave, hash);
+            boolean nuevo = tiempos[i] == VACIO;
+            claves[i] = clave;
+            tiempos[i] = ahora;
+            if (nuevo) {
+                turnos[i] = Admision.SIN_TURNO;
+            }
+            if (nuevo && ++cantidad * 2 > claves.length) {
+                reconstruir(claves.length * 2, Long.MIN_VALUE);
+            }
+            return nuevo;
+        }
+
+        synchronized boolean admitir(int clave, int hash, long ahora) {
+            int i = casilla(clave, hash);
+            if (tiempos[i] == VACIO) {
+                return true;
+            }
+            long siguiente = Admision.admitir(turnos[i], ahora);
+            if (siguiente == Admision.SIN_TURNO) {
+                return false;
+            }
+            turnos[i] = siguiente;
+            return true;
+        }
+
+        synchronized long ultimaVez(int clave, int hash) {
+            return tiempos[casilla(clave, hash)];
+        }
+
+        synchronized boolean quitar(int clave, int hash) {
+            int i = casilla(clave, hash);
+            if (tiempos[i] == VACIO) {
+                return false;
+            }
+            // Se corren hacia atrás las claves siguientes que quedarían inalcanzables con la casilla libre.
+            int mascara = claves.length - 1;
+            int j = i;
+            while (true) {
+                j = (j + 1) & mascara;
+                if (tiempos[j] == VACIO) {
+                    break;
+                }
+                int ideal = (mezclar(claves[j]) >>> 4) & mascara;
+                boolean alcanzable = i <= j ? (i < ideal && ideal <= j) : (i < ideal || ideal <= j);
+                if (!alcanzable) {
+                    claves[i] = claves[j];
+                    tiempos[i] = tiempos[j];
+                    turnos[i] = turnos[j];
+                    i = j;
+                }
+            }
+            tiempos[i] = VACIO;
+            cantidad--;
+            return true;
+        }
+
+        synchronized int desalojar(long limite) {
+            int antes = cantidad;
+            int capacidad = claves.length;
+            while (capacidad > CAPACIDAD_INICIAL && cantidad * 8 < capacidad) {
+                capacidad /= 2;
+            }
+            reconstruir(capacidad, limite);
+            return antes - cantidad;
+        }
+
+        /**
+         * Copia las entradas a una tabla nueva, descartando las que no se comunican desde el límite.
+         */
+        private void reconstruir(int capacidad, long limite) {
+            int[] viejasClaves = claves;
+            long[] viejosTiempos = tiempos;
+            long[] viejosTurnos = turnos;
+            claves = new int[capacidad];
+            tiempos = vacios(capacidad);
+            turnos = new long[capacidad];
+            cantidad = 0;
+            for (int i = 0; i < viejasClaves.length; i++) {
+                if (viejosTiempos[i] != VACIO && viejosTiempos[i] >= limite) {
+                    int j = casilla(viejasClaves[i], mezclar(viejasClaves[i]));
+                    claves[j] = viejasClaves[i];
+                    tiempos[j] = viejosTiempos[i];
+                    turnos[j] = viejosTurnos[i];
+                    cantidad++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+import java.io.Serializable;
+
+/**
+ * Respuesta del protocolo persistente con el identificador de la solicitud que responde.
+ */
+class Respuesta implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long id;
+    private final String resultado;
+
+    public Respuesta(long id, String resultado) {
+        this.id = id;
+        this.resultado = resultado;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getResultado() {
+        return resultado;
+    }
+}
@@ -0,0 +1,76 @@
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Escribe tramas en un flujo bloqueante. Los métodos son sincronizados para que varios hilos
+ * puedan responder por la misma conexión sin mezclar sus bytes.
+ */
+class SalidaTramas implements Flushable {
+    private final OutputStream salida;
+    private final boolean vaciarCadaTrama;
+    private ByteBuffer bufer = ByteBuffer.allocate(EntradaTramas.INICIAL);
+
+    SalidaTramas(OutputStream salida) {
+        this(salida, true);
+    }
+
+    /**
+     * @param salida El flujo de la conexión.
+     * @param vaciarCadaTrama Si se vacía el flujo después de cada trama; si no, lo hace quien llama a {@link #flush()}.
+     */
+    SalidaTramas(OutputStream salida, boolean vaciarCadaTrama) {
+        this.salida = salida;
+        this.vaciarCadaTrama = vaciarCadaTrama;
+    }
+
+    synchronized void solicitud(long id, CharSequence expresion) throws IOException {
+        bufer = Protocolo.asegurar(bufer, Protocolo.largoTexto(expresion));
+        Protocolo.codificarSolicitud(bufer, id, expresion);
+        enviar();
+    }
+
+    synchronized void resultado(long id, double valor) throws IOException {
+        bufer.clear();
+        Protocolo.codificarResultado(bufer, id, valor);
+        enviar();
+    }
+
+    synchronized void lote(long id, CharSequence[] expresiones) throws IOException {
+        bufer = Protocolo.asegurar(bufer, Protocolo.largoLote(expresiones));
+        Protocolo.codificarLote(bufer, id, expresiones);
+        enviar();
+    }
+
+    synchronized void resultadoLote(long id, double[] valores, String[] errores) throws IOException {
+        bufer = Protocolo.asegurar(bufer, Protocolo.largoResultadoLote(errores));
+        Protocolo.codificarResultadoLote(bufer, id, valores, errores);
+        enviar();
+    }
+
+    synchronized void error(long id, CharSequence mensaje) throws IOException {
+        bufer = Protocolo.asegurar(bufer, Protocolo.largoTexto(mensaje));
+        Protocolo.codificarError(bufer, id, mensaje);
+        enviar();
+    }
+
+    synchronized void ocupado(long id, CharSequence motivo) throws IOException {
+        bufer = Protocolo.asegurar(bufer, Protocolo.largoTexto(motivo));
+        Protocolo.codificarOcupado(bufer, id, motivo);
+        enviar();
+    }
+
+    private void enviar() throws IOException {
+        salida.write(bufer.array(), 0, bufer.position());
+        if (vaciarCadaTrama) {
+            salida.flush();
+        }
+        bufer = Protocolo.reducir(bufer, EntradaTramas.INICIAL);
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        salida.flush();
+    }
+}
@@ -0,0 +1,432 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Servidor no bloqueante para el protocolo binario de {@link Protocolo}. Unos pocos hilos de entrada/salida,
+ * cada uno con su propio Selector, atienden todas las conexiones; una conexión inactiva solo ocupa su canal
+ * y sus dos búferes directos. Las solicitudes decodificadas se evalúan en un grupo de hilos aparte, y las
+ * respuestas se escriben sin bloquear cuando el canal lo permite. Una solicitud que excede el límite de tasa de
+ * su conexión, que no cabe en la cola de cálculo o que esperó demasiado en ella se responde con una trama OCUPADO
+ * (ver {@link Admision}).
+ * Este modo no acepta clientes que envían objetos serializados.
+ */
+public class ServidorNio implements Runnable {
+    static final int BUFER_INICIAL = 2048;     // Tamaño inicial de los búferes de cada conexión.
+    static final int LIMITE_SALIDA = 64 * 1024; // Bytes pendientes de enviar a partir de los cuales se deja de leer.
+    static final long ESPERA_ACEPTAR = 100;     // Milisegundos de espera tras un accept fallido (p. ej. sin descriptores).
+
+    private final int puerto;
+    private final Reactor[] reactores;
+    private final ExecutorService calculo;
+
+    /**
+     * Crea el servidor.
+     *
+     * @param puerto El puerto donde se aceptan conexiones.
+     * @param hilos Cantidad de hilos de entrada/salida.
+     * @param calculo Grupo de hilos donde se evalúan las expresiones.
+     * @throws IOException Si no se pueden abrir los selectores.
+     */
+    public ServidorNio(int puerto, int hilos, ExecutorService calculo) throws IOException {
+        this.puerto = puerto;
+        this.calculo = calculo;
+        this.reactores = new Reactor[Math.max(1, hilos)];
+        for (int i = 0; i < reactores.length; i++) {
+            reactores[i] = new Reactor();
+            Thread hilo = new Thread(reactores[i], "reactor-" + i);
+            hilo.setDaemon(true);
+            hilo.start();
+        }
+    }
+
+    /**
+     * Hilo que acepta las conexiones y las reparte entre los reactores por turnos. Solo termina si no puede
+     * abrir el puerto: un accept fallido, por ejemplo por falta de descriptores de archivo, se registra y se
+     * reintenta tras {@link #ESPERA_ACEPTAR} milisegundos, y una conexión que falla al configurarse se cierra
+     * sin afectar a las demás.
+     */
+    @Override
+    public void run() {
+        try (ServerSocketChannel receptor = ServerSocketChannel.open()) {
+            receptor.bind(new InetSocketAddress(puerto), 1024);
+            Bitacora.escribir("Conectado (NIO, " + reactores.length + " hilos de entrada/salida)");
+            int siguiente = 0;
+            while (receptor.isOpen()) {
+                SocketChannel canal;
+                try {
+                    canal = receptor.accept();
+                } catch (IOException e) {
+                    Metricas.erroresConexion.increment();
+                    Bitacora.escribir("No se pudo aceptar una conexión: " + e);
+                    esperar();
+                    continue;
+                }
+                long aceptada = System.nanoTime();
+                try {
+                    canal.configureBlocking(false);
+                    canal.socket().setTcpNoDelay(true);
+                } catch (IOException e) {
+                    Metricas.erroresConexion.increment();
+                    Bitacora.escribir("No se pudo configurar la conexión " + canal + ": " + e);
+                    cerrar(canal);
+                    continue;
+                }
+                reactores[siguiente].registrar(new Conexion(canal, reactores[siguiente], aceptada));
+                siguiente = (siguiente + 1) % reactores.length;
+            }
+        } catch (IOException e1) {
+            throw new RuntimeException(e1);
+        }
+    }
+
+    private static void esperar() {
+        try {
+            Thread.sleep(ESPERA_ACEPTAR);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void cerrar(SocketChannel canal) {
+        try {
+            canal.close();
+        } catch (IOException e) {
+            // La conexión ya está cerrada.
+        }
+    }
+
+    /**
+     * Hilo de entrada/salida con su propio Selector. Las conexiones nuevas y los pedidos de escritura que
+     * llegan desde otros hilos se encolan y se procesan después de despertar al selector.
+     */
+    static final class Reactor implements Runnable {
+        private final Selector selector;
+        private final Queue<Conexion> nuevas = new ConcurrentLinkedQueue<>();
+        private final Queue<Conexion> escrituras = new ConcurrentLinkedQueue<>();
+
+        Reactor() throws IOException {
+            selector = Selector.open();
+        }
+
+        void registrar(Conexion conexion) {
+            nuevas.add(conexion);
+            selector.wakeup();
+        }
+
+        void pedirEscritura(Conexion conexion) {
+            escrituras.add(conexion);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select(this::atender);
+                    Conexion conexion;
+                    while ((conexion = nuevas.poll()) != null) {
+                        try {
+                            conexion.llave = conexion.canal.register(selector, SelectionKey.OP_READ, conexion);
+                            Metricas.ACEPTAR.registrarDesde(conexion.aceptada);
+                        } catch (IOException e) {
+                            conexion.fallar(e);
+                        }
+                    }
+                    while ((conexion = escrituras.poll()) != null) {
+                        try {
+                            conexion.escribir();
+                        } catch (RuntimeException e) {
+                            conexion.fallar(e);
+                        }
+                    }
+                } catch (IOException e) {
+                    Bitacora.escribir("Error en el reactor: " + e);
+                }
+            }
+        }
+
+        private void atender(SelectionKey llave) {
+            Conexion conexion = (Conexion) llave.attachment();
+            try {
+                if (llave.isValid() && llave.isReadable()) {
+                    conexion.leer();
+                }
+                if (llave.isValid() && llave.isWritable()) {
+                    conexion.escribir();
+                }
+            } catch (RuntimeException e) {
+                // Un error inesperado con una conexión la cierra solo a ella: el reactor sigue atendiendo a las demás.
+                conexion.fallar(e);
+            }
+        }
+    }
+
+    /**
+     * Estado de una conexión. La lectura solo la hace el hilo de su reactor; el búfer de escritura lo comparten
+     * el reactor y los hilos de cálculo, por eso se usa con el candado de la conexión. Cuando el cliente cierra su
+     * lado de la conexión se deja de leer, pero la conexión se cierra recién cuando se enviaron las respuestas de
+     * todas las solicitudes que estaban en el grupo de cálculo.
+     */
+    final class Conexion {
+        final SocketChannel canal;
+        final Reactor reactor;
+        final long aceptada; // Instante (System.nanoTime()) en que se aceptó la conexión.
+        SelectionKey llave;
+        private ByteBuffer lectura = ByteBuffer.allocateDirect(BUFER_INICIAL);   // Bytes recibidos sin procesar.
+        private ByteBuffer escritura = ByteBuffer.allocateDirect(BUFER_INICIAL); // Bytes pendientes de enviar.
+        private final Trama trama = new Trama();
+        private final Admision.Limite limite = new Admision.Limite();
+        private boolean escrituraPedida; // Ya hay un pedido de escritura en la cola del reactor.
+        private boolean suspendida;      // Se dejó de leer porque el cliente no consume sus respuestas.
+        private boolean finLectura;      // El cliente ya no envía más: se cierra al terminar de responder.
+        private int enCurso;             // Solicitudes en el grupo de cálculo sin respuesta todavía.
+        private boolean cerrada;
+
+        Conexion(SocketChannel canal, Reactor reactor, long aceptada) {
+            this.canal = canal;
+            this.reactor = reactor;
+            this.aceptada = aceptada;
+            Metricas.conexionesAbiertas.increment();
+        }
+
+        /**
+         * Lee los bytes disponibles y envía al grupo de cálculo cada solicitud completa.
+         */
+        void leer() {
+            try {
+                if (canal.read(lectura) < 0) {
+                    synchronized (this) {
+                        finLectura = true;
+                        llave.interestOps(llave.interestOps() & ~SelectionKey.OP_READ);
+                        pedirEscritura(); // Cierra la conexión si no queda nada por responder.
+                    }
+                    return;
+                }
+                lectura.flip();
+                int largo;
+                while ((largo = Protocolo.tramaCompleta(lectura)) > 0) {
+                    long inicio = System.nanoTime();
+                    Protocolo.decodificar(lectura, trama);
+                    Metricas.DESERIALIZAR.registrarDesde(inicio);
+                    long id = trama.id;
+                    long encolada = System.nanoTime();
+                    String expresion = trama.texto;
+                    String[] expresiones = trama.expresiones;
+                    if (trama.tipo != Protocolo.LOTE && trama.tipo != Protocolo.SOLICITUD) {
+                        enviarError(id, "Se esperaba una solicitud");
+                    } else if (!limite.admitir()) {
+                        enviarOcupado(id, Admision.DEMASIADAS);
+                    } else {
+                        Runnable tarea = trama.tipo == Protocolo.LOTE
+                                ? () -> responderLote(id, expresiones, encolada)
+                                : () -> responder(id, expresion, encolada);
+                        synchronized (this) {
+                            enCurso++;
+                        }
+                        try {
+                            calculo.execute(() -> {
+                                try {
+                                    tarea.run();
+                                } finally {
+                                    terminar();
+                                }
+                            });
+                        } catch (RejectedExecutionException e) {
+                            synchronized (this) {
+                                enCurso--;
+                            }
+                            enviarOcupado(id, Admision.COLA_LLENA);
+                        }
+                    }
+                }
+                if (lectura.remaining() >= 6 && lectura.getInt(lectura.position()) + 4 > lectura.capacity()) {
+                    // La trama no cabe en el búfer actual; tramaCompleta ya verificó que no supera el máximo de su tipo.
+                    ByteBuffer mayor = ByteBuffer.allocateDirect(lectura.getInt(lectura.position()) + 4);
+                    mayor.put(lectura);
+                    lectura = mayor;
+                } else if (lectura.capacity() > Protocolo.RETENIDO && lectura.remaining() <= BUFER_INICIAL) {
+                    // Ya se procesó la trama grande: lo que queda vuelve a un búfer del tamaño inicial.
+                    ByteBuffer menor = ByteBuffer.allocateDirect(BUFER_INICIAL);
+                    menor.put(lectura);
+                    lectura = menor;
+                } else {
+                    lectura.compact();
+                }
+                synchronized (this) {
+                    if (escritura.position() > LIMITE_SALIDA && !suspendida) {
+                        suspendida = true;
+                        llave.interestOps(llave.interestOps() & ~SelectionKey.OP_READ);
+                    }
+                }
+            } catch (IOException e) {
+                // Incluye tramas inválidas, como las de un cliente que envía objetos serializados.
+                Metricas.erroresConexion.increment();
+                cerrar();
+            }
+        }
+
+        /**
+         * Evalúa una solicitud en un hilo de cálculo y deja su respuesta lista para enviar.
+         */
+        void responder(long id, String expresion, long encolada) {
+            if (Admision.vencida(encolada)) {
+                enviarOcupado(id, Admision.COLA_LLENA);
+                return;
+            }
+            double resultado;
+            try {
+                resultado = ArbolExpresion.calcularSolicitud(expresion);
+            } catch (IllegalArgumentException e) {
+                enviarError(id, e.getMessage());
+                return;
+            }
+            synchronized (this) {
+                if (cerrada) {
+                    return;
+                }
+                long inicio = System.nanoTime();
+                asegurarEscritura(Protocolo.ENCABEZADO + 8);
+                Protocolo.codificarResultado(escritura, id, resultado);
+                pedirEscritura();
+                Metricas.RESPONDER.registrarDesde(inicio);
+            }
+        }
+
+        /**
+         * Evalúa un lote en un hilo de cálculo y deja todos sus resultados listos para enviar en una trama.
+         */
+        void responderLote(long id, String[] expresiones, long encolada) {
+            if (Admision.vencida(encolada)) {
+                enviarOcupado(id, Admision.COLA_LLENA);
+                return;
+            }
+            double[] valores = new double[expresiones.length];
+            String[] errores = new String[expresiones.length];
+            ArbolExpresion.calcularLoteSolicitud(expresiones, valores, errores);
+            synchronized (this) {
+                if (cerrada) {
+                    return;
+                }
+                long inicio = System.nanoTime();
+                asegurarEscritura(Protocolo.largoResultadoLote(errores));
+                Protocolo.codificarResultadoLote(escritura, id, valores, errores);
+                pedirEscritura();
+                Metricas.RESPONDER.registrarDesde(inicio);
+            }
+        }
+
+        private synchronized void enviarError(long id, String mensaje) {
+            if (cerrada) {
+                return;
+            }
+            asegurarEscritura(Protocolo.largoTexto(mensaje));
+            Protocolo.codificarError(escritura, id, mensaje);
+            pedirEscritura();
+        }
+
+        private synchronized void enviarOcupado(long id, String motivo) {
+            Metricas.rechazadas.increment();
+            if (cerrada) {
+                return;
+            }
+            asegurarEscritura(Protocolo.largoTexto(motivo));
+            Protocolo.codificarOcupado(escritura, id, motivo);
+            pedirEscritura();
+        }
+
+        private void asegurarEscritura(int largo) {
+            if (escritura.remaining() < largo) {
+                ByteBuffer mayor = ByteBuffer.allocateDirect(Math.max(escritura.capacity() * 2, escritura.position() + largo));
+                escritura.flip();
+                mayor.put(escritura);
+                escritura = mayor;
+            }
+        }
+
+        /**
+         * Registra que una solicitud del grupo de cálculo ya dejó su respuesta. Si era la última y el cliente ya
+         * cerró su lado, pide una escritura para que el reactor envíe lo pendiente y cierre la conexión.
+         */
+        private synchronized void terminar() {
+            enCurso--;
+            if (finLectura && enCurso == 0 && !cerrada) {
+                pedirEscritura();
+            }
+        }
+
+        private void pedirEscritura() {
+            if (!escrituraPedida) {
+                escrituraPedida = true;
+                reactor.pedirEscritura(this);
+            }
+        }
+
+        /**
+         * Envía lo que el canal acepte sin bloquear. Si queda algo pendiente, espera a que el canal vuelva a
+         * estar disponible para escritura.
+         */
+        synchronized void escribir() {
+            if (cerrada || llave == null) {
+                return;
+            }
+            try {
+                escritura.flip();
+                canal.write(escritura);
+                escritura.compact();
+                int intereses = SelectionKey.OP_READ;
+                if (escritura.position() > 0) {
+                    intereses |= SelectionKey.OP_WRITE;
+                } else {
+                    escrituraPedida = false;
+                    escritura = Protocolo.reducir(escritura, BUFER_INICIAL);
+                    if (finLectura && enCurso == 0) {
+                        cerrar(); // Se respondió todo lo que el cliente envió antes de cerrar su lado.
+                        return;
+                    }
+                }
+                if (suspendida && escritura.position() <= LIMITE_SALIDA / 2) {
+                    suspendida = false;
+                }
+                if (suspendida || finLectura) {
+                    intereses &= ~SelectionKey.OP_READ;
+                }
+                llave.interestOps(intereses);
+            } catch (IOException e) {
+                cerrar();
+            }
+        }
+
+        /**
+         * Cierra la conexión por un error que no es de entrada/salida normal, y lo registra en la bitácora.
+         */
+        void fallar(Exception e) {
+            Bitacora.escribir("Error en la conexión " + canal + ": " + e);
+            Metricas.erroresConexion.increment();
+            cerrar();
+        }
+
+        private synchronized void cerrar() {
+            if (!cerrada) {
+                Metricas.conexionesAbiertas.decrement();
+            }
+            cerrada = true;
+            if (llave != null) {
+                llave.cancel();
+            }
+            try {
+                canal.close();
+            } catch (IOException e) {
+                // La conexión ya está cerrada.
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+import java.io.Serializable;
+
+/**
+ * Solicitud del protocolo persistente: una expresión identificada para poder asociarle su respuesta.
+ */
+class Solicitud implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long id;
+    private final String expresion;
+
+    public Solicitud(long id, String expresion) {
+        this.id = id;
+        this.expresion = expresion;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getExpresion() {
+        return expresion;
+    }
+}
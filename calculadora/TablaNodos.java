@@ -0,0 +1,315 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Almacén de nodos de una expresión en arreglos paralelos (estructura de arreglos) en lugar de un objeto
+ * {@link Nodo} con un String por nodo. Cada nodo tiene un código de {@link Programa} y dos índices: los de sus
+ * hijos en una operación, el de su constante en CARGAR y el de su variable en VARIABLE.
+ * <p>
+ * Los nodos se guardan en orden topológico (cada hijo antes que su padre, la raíz al final), así que evaluar es
+ * un solo recorrido hacia adelante sin pila ni recursión: funciona igual con millones de nodos o con una cadena
+ * de sumas tan profunda que la versión recursiva desbordaría la pila del hilo. Un nodo ocupa 9 bytes más su
+ * resultado al evaluar, frente a unos 70 de un Nodo con su String.
+ * Una tabla es inmutable y puede evaluarse desde varios hilos, cada uno con su propio arreglo de resultados.
+ */
+public final class TablaNodos {
+    static final byte DESCONOCIDO = -1; // Operador que no se reconoce; vale 0, como en evaluarArbol.
+
+    final byte[] tipos;        // Código de operación de cada nodo.
+    final int[] izquierdos;    // Hijo izquierdo, o índice de la constante o de la variable en las hojas.
+    final int[] derechos;      // Hijo derecho.
+    final double[] constantes; // Valores de los nodos CARGAR.
+    final String[] variables;  // Nombres de las variables, en el orden en que aparecen por primera vez.
+    final int cantidad;
+
+    private TablaNodos(Constructor constructor) {
+        this.tipos = Arrays.copyOf(constructor.tipos, constructor.cantidad);
+        this.izquierdos = Arrays.copyOf(constructor.izquierdos, constructor.cantidad);
+        this.derechos = Arrays.copyOf(constructor.derechos, constructor.cantidad);
+        this.constantes = Arrays.copyOf(constructor.constantes, constructor.cantidadConstantes);
+        this.variables = constructor.variables.toArray(new String[0]);
+        this.cantidad = constructor.cantidad;
+    }
+
+    /**
+     * Convierte un árbol de nodos. El recorrido es iterativo, por lo que no depende de la profundidad del árbol.
+     *
+     * @param raiz La raíz del árbol de expresión.
+     * @return La tabla equivalente a evaluar el árbol con {@link ArbolExpresion#evaluarArbol(Nodo, Map)}.
+     */
+    public static TablaNodos desdeArbol(Nodo raiz) {
+        // Se obtiene el recorrido postfijo invirtiendo un recorrido (nodo, derecho, izquierdo).
+        ArrayList<Nodo> pendientes = new ArrayList<>();
+        ArrayList<Nodo> recorrido = new ArrayList<>();
+        pendientes.add(raiz);
+        while (!pendientes.isEmpty()) {
+            Nodo nodo = pendientes.remove(pendientes.size() - 1);
+            recorrido.add(nodo);
+            if (nodo != null && (esOperador(nodo) || !nodo.esNumero() && !nodo.esVariable())) {
+                pendientes.add(nodo.izquierdo);
+                pendientes.add(nodo.derecho);
+            }
+        }
+
+        Constructor constructor = new Constructor(recorrido.size());
+        int[] pila = new int[16]; // Índices de los nodos cuyos padres todavía no se agregaron.
+        int tope = -1;
+        for (int i = recorrido.size() - 1; i >= 0; i--) {
+            Nodo nodo = recorrido.get(i);
+            int indice;
+            if (nodo == null) {
+                // Un hijo ausente se evalúa como 0.
+                indice = constructor.constante(0);
+            } else if (!esOperador(nodo) && nodo.esNumero()) {
+                indice = constructor.constante(Double.parseDouble(nodo.valor));
+            } else if (!esOperador(nodo) && nodo.esVariable()) {
+                indice = constructor.variable(nodo.valor);
+            } else {
+                byte codigo = Programa.codigo(nodo.valor.charAt(0));
+                int derecho = pila[tope--];
+                int izquierdo = pila[tope--];
+                // Un operador desconocido vale 0, pero sus hijos se evalúan igual que en la versión recursiva.
+                indice = constructor.agregar(codigo < 0 ? DESCONOCIDO : codigo, izquierdo, derecho);
+            }
+            if (++tope == pila.length) {
+                pila = Arrays.copyOf(pila, pila.length * 2);
+            }
+            pila[tope] = indice;
+        }
+        return new TablaNodos(constructor);
+    }
+
+    /**
+     * Reconoce sin excepciones los nodos de operador, que son la mitad del árbol; esNumero lanzaría y atraparía
+     * una NumberFormatException por cada uno.
+     */
+    private static boolean esOperador(Nodo nodo) {
+        return nodo.valor.length() == 1 && Programa.codigo(nodo.valor.charAt(0)) >= 0;
+    }
+
+    /**
+     * Convierte un programa compilado. Las subexpresiones que el programa comparte mediante registros quedan
+     * como un solo nodo con varios padres.
+     *
+     * @param programa El programa a convertir.
+     * @return La tabla equivalente al programa.
+     */
+    public static TablaNodos desdePrograma(Programa programa) {
+        Constructor constructor = new Constructor(programa.codigos.length);
+        for (String variable : programa.variables) {
+            constructor.variables.add(variable);
+        }
+        int[] pila = new int[Math.max(1, programa.profundidad)];
+        int[] guardados = new int[programa.registros];
+        int tope = -1;
+        for (int i = 0; i < programa.codigos.length; i++) {
+            byte codigo = programa.codigos[i];
+            int operando = programa.operandos[i];
+            switch (codigo) {
+                case Programa.CARGAR:
+                    pila[++tope] = constructor.constante(programa.constantes[operando]);
+                    break;
+                case Programa.VARIABLE:
+                    pila[++tope] = constructor.agregar(Programa.VARIABLE, operando, 0);
+                    break;
+                case Programa.GUARDAR:
+                    guardados[operando] = pila[tope];
+                    break;
+                case Programa.RECUPERAR:
+                    pila[++tope] = guardados[operando];
+                    break;
+                default:
+                    int derecho = pila[tope--];
+                    pila[tope] = constructor.agregar(codigo, pila[tope], derecho);
+            }
+        }
+        return new TablaNodos(constructor);
+    }
+
+    /**
+     * @return Los nombres de las variables. Los valores que recibe evaluar van en este orden.
+     */
+    public String[] getVariables() {
+        return variables.clone();
+    }
+
+    /**
+     * @return La cantidad de nodos.
+     */
+    public int getCantidad() {
+        return cantidad;
+    }
+
+    /**
+     * @return Bytes que ocupan los arreglos de la tabla, sin contar los nombres de las variables.
+     */
+    public long getMemoria() {
+        return 4 * 16 + (long) cantidad * (1 + 4 + 4) + (long) constantes.length * 8;
+    }
+
+    /**
+     * Evalúa la expresión con los valores de sus variables según su nombre.
+     *
+     * @param valores El valor de cada variable.
+     * @return El resultado de la expresión.
+     * @throws IllegalArgumentException Si alguna variable no tiene valor.
+     */
+    public double evaluar(Map<String, Double> valores) {
+        double[] arreglo = new double[variables.length];
+        for (int i = 0; i < variables.length; i++) {
+            Double valor = valores.get(variables[i]);
+            if (valor == null) {
+                throw new IllegalArgumentException("La variable '" + variables[i] + "' no tiene valor");
+            }
+            arreglo[i] = valor;
+        }
+        return evaluar(arreglo, new double[cantidad]);
+    }
+
+    /**
+     * Evalúa la expresión recorriendo los nodos una sola vez, de las hojas a la raíz.
+     *
+     * @param valores El valor de cada variable, en el orden de {@link #getVariables()}.
+     * @param resultados Arreglo de trabajo con al menos {@link #getCantidad()} elementos; puede reutilizarse.
+     * @return El resultado de la expresión.
+     * @throws IllegalArgumentException Si faltan valores o el arreglo de resultados es demasiado chico.
+     */
+    public double evaluar(double[] valores, double[] resultados) {
+        if (valores.length < variables.length) {
+            throw new IllegalArgumentException("La variable '" + variables[valores.length] + "' no tiene valor");
+        }
+        if (resultados.length < cantidad) {
+            throw new IllegalArgumentException("Se necesitan " + cantidad + " resultados y hay " + resultados.length);
+        }
+        byte[] t = tipos;
+        int[] izq = izquierdos;
+        int[] der = derechos;
+        double[] r = resultados;
+        for (int i = 0; i < cantidad; i++) {
+            byte codigo = t[i];
+            if (codigo == Programa.CARGAR) {
+                r[i] = constantes[izq[i]];
+            } else if (codigo == Programa.VARIABLE) {
+                r[i] = valores[izq[i]];
+            } else {
+                r[i] = Evaluador.operar(codigo, r[izq[i]], r[der[i]]);
+            }
+        }
+        return r[cantidad - 1];
+    }
+
+    /**
+     * Arreglos que crecen mientras se agregan nodos.
+     */
+    private static final class Constructor {
+        byte[] tipos;
+        int[] izquierdos;
+        int[] derechos;
+        double[] constantes = new double[16];
+        final ArrayList<String> variables = new ArrayList<>();
+        int cantidad;
+        int cantidadConstantes;
+
+        Constructor(int capacidad) {
+            capacidad = Math.max(1, capacidad);
+            tipos = new byte[capacidad];
+            izquierdos = new int[capacidad];
+            derechos = new int[capacidad];
+        }
+
+        int agregar(byte tipo, int izquierdo, int derecho) {
+            if (cantidad == tipos.length) {
+                tipos = Arrays.copyOf(tipos, cantidad * 2);
+                izquierdos = Arrays.copyOf(izquierdos, cantidad * 2);
+                derechos = Arrays.copyOf(derechos, cantidad * 2);
+            }
+            tipos[cantidad] = tipo;
+            izquierdos[cantidad] = izquierdo;
+            derechos[cantidad] = derecho;
+            return cantidad++;
+        }
+
+        int constante(double valor) {
+            if (cantidadConstantes == constantes.length) {
+                constantes = Arrays.copyOf(constantes, cantidadConstantes * 2);
+            }
+            constantes[cantidadConstantes] = valor;
+            return agregar(Programa.CARGAR, cantidadConstantes++, 0);
+        }
+
+        int variable(String nombre) {
+            int indice = variables.indexOf(nombre);
+            if (indice < 0) {
+                indice = variables.size();
+                variables.add(nombre);
+            }
+            return agregar(Programa.VARIABLE, indice, 0);
+        }
+    }
+
+    /**
+     * Compara la memoria y el tiempo de evaluación de un árbol de Nodo con los de una tabla de nodos.
+     * Uso: java TablaNodos [nodos]
+     */
+    public static void main(String[] args) {
+        int operandos = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        // Una cadena de sumas como las que arman los generadores de expresiones: el árbol queda inclinado a la
+        // izquierda y su profundidad es la cantidad de operandos.
+        StringBuilder texto = new StringBuilder(operandos * 4);
+        for (int i = 0; i < operandos; i++) {
+            if (i > 0) {
+                texto.append(i % 3 == 0 ? '*' : '+');
+            }
+            texto.append(i % 7).append(".5");
+        }
+
+        long antes = memoriaUsada();
+        long inicio = System.nanoTime();
+        Nodo arbol = Analizador.construirArbol(texto);
+        long tiempoArbol = System.nanoTime() - inicio;
+        long memoriaArbol = memoriaUsada() - antes;
+
+        antes = memoriaUsada();
+        inicio = System.nanoTime();
+        TablaNodos tabla = desdeArbol(arbol);
+        long tiempoTabla = System.nanoTime() - inicio;
+        long memoriaTabla = memoriaUsada() - antes;
+
+        System.out.println("Nodos: " + tabla.getCantidad());
+        System.out.printf("Árbol de Nodo:  %,d bytes (%.1f por nodo), construido en %.1f ms%n",
+                memoriaArbol, (double) memoriaArbol / tabla.getCantidad(), tiempoArbol / 1e6);
+        System.out.printf("Tabla de nodos: %,d bytes (%.1f por nodo), convertida en %.1f ms%n",
+                memoriaTabla, (double) memoriaTabla / tabla.getCantidad(), tiempoTabla / 1e6);
+
+        try {
+            inicio = System.nanoTime();
+            double resultado = ArbolExpresion.evaluarArbol(arbol);
+            System.out.printf("Evaluación recursiva del árbol: %s en %.1f ms%n", resultado, (System.nanoTime() - inicio) / 1e6);
+        } catch (StackOverflowError e) {
+            System.out.println("Evaluación recursiva del árbol: desborda la pila del hilo");
+        }
+
+        double[] resultados = new double[tabla.getCantidad()];
+        double[] sinVariables = {};
+        double resultado = 0;
+        for (int i = 0; i < 5; i++) {
+            tabla.evaluar(sinVariables, resultados); // Calentamiento del JIT.
+        }
+        int repeticiones = 20;
+        inicio = System.nanoTime();
+        for (int i = 0; i < repeticiones; i++) {
+            resultado = tabla.evaluar(sinVariables, resultados);
+        }
+        System.out.printf("Evaluación de la tabla: %s en %.2f ms%n", resultado,
+                (System.nanoTime() - inicio) / 1e6 / repeticiones);
+    }
+
+    private static long memoriaUsada() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,64 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Campos de una trama leída. Una misma instancia se reutiliza para todas las tramas de una conexión.
+ */
+class Trama {
+    byte tipo;
+    long id;
+    double valor;   // Resultado, en las tramas RESULTADO.
+    String texto;   // Expresión o mensaje, en las tramas SOLICITUD, ERROR y OCUPADO.
+    String[] expresiones; // Expresiones de una trama LOTE.
+    double[] valores;     // Resultados de una trama RESULTADO_LOTE.
+    String[] errores;     // Mensajes de error de una trama RESULTADO_LOTE, null en los elementos sin error.
+    private char[] caracteres = new char[64];
+
+    /**
+     * Lee un texto UTF-8 hasta la posición indicada. Una secuencia inválida se reemplaza por U+FFFD.
+     *
+     * @param origen El búfer con el texto.
+     * @param fin La posición donde termina el texto.
+     * @return El texto leído.
+     */
+    String leerUtf8(ByteBuffer origen, int fin) {
+        int n = 0;
+        if (caracteres.length < fin - origen.position()) {
+            caracteres = new char[fin - origen.position()];
+        }
+        while (origen.position() < fin) {
+            int b = origen.get() & 0xFF;
+            int punto;
+            int faltan;
+            if (b < 0x80) {
+                caracteres[n++] = (char) b;
+                continue;
+            } else if ((b & 0xE0) == 0xC0) {
+                punto = b & 0x1F;
+                faltan = 1;
+            } else if ((b & 0xF0) == 0xE0) {
+                punto = b & 0x0F;
+                faltan = 2;
+            } else if ((b & 0xF8) == 0xF0) {
+                punto = b & 0x07;
+                faltan = 3;
+            } else {
+                caracteres[n++] = '�';
+                continue;
+            }
+            boolean valido = true;
+            for (; faltan > 0; faltan--) {
+                if (origen.position() >= fin || (origen.get(origen.position()) & 0xC0) != 0x80) {
+                    valido = false;
+                    break;
+                }
+                punto = (punto << 6) | (origen.get() & 0x3F);
+            }
+            if (!valido || !Character.isValidCodePoint(punto)) {
+                caracteres[n++] = '�';
+            } else {
+                n += Character.toChars(punto, caracteres, n);
+            }
+        }
+        return new String(caracteres, 0, n);
+    }
+}
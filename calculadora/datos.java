@@ -0,0 +1,25 @@
+import java.io.Serializable;
+
+/**
+ * Clase que funciona como un paquete de datos que contiene el puerto del cliente y la expresión matemática para ser enviado al servidor.
+ */
+class datos implements Serializable {
+    private String expresion;
+    private int port;
+
+    public String getExpresion() {
+        return expresion;
+    }
+
+    public void setExpresion(String ip) {
+        this.expresion = ip;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+}